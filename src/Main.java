@@ -11,7 +11,7 @@ public class Main {
     private static Scanner scanner = new Scanner(System.in);
     private static UserService userService = new UserService();
     private static ProductService productService = new ProductService();
-    private static CartService cartService = new CartService();
+    private static CartService cartService = new CartService(productService);
     private static OrderService orderService = new OrderService();
 
     public static void main(String[] args) {
@@ -45,6 +45,7 @@ public class Main {
                     loginUser();
                     break;
                 case 3:
+                    cartService.flush();
                     System.out.println("\nThank you for using E-Commerce System!");
                     System.out.println("Goodbye!");
                     return;
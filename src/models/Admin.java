@@ -1,5 +1,7 @@
 package models;
 
+import utils.RecordCodec;
+
 /**
  * Admin class - demonstrates Inheritance
  * Extends User class
@@ -41,14 +43,19 @@ public class Admin extends User {
 
     @Override
     public String toString() {
-        return super.toString() + "," + adminLevel + ",ADMIN";
+        return toRecord().add(adminLevel).add("ADMIN").toString();
     }
 
     // Parse from CSV string
     public static Admin fromString(String data) {
-        String[] parts = data.split(",");
-        if (parts.length >= 6) {
-            return new Admin(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5]);
+        return fromRecord(new RecordCodec.Reader(data, ','));
+    }
+
+    // Parse from the fields of a CSV record
+    public static Admin fromRecord(RecordCodec.Reader fields) {
+        if (fields.countFields() >= 6) {
+            return new Admin(fields.nextString(), fields.nextString(), fields.nextString(),
+                             fields.nextString(), fields.nextString(), fields.nextString());
         }
         return null;
     }
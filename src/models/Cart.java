@@ -0,0 +1,162 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cart class - one customer's shopping cart
+ * Demonstrates Composition (Cart HAS-A CartItem per product)
+ *
+ * Lines are keyed by product ID (in the order they were added), and the
+ * subtotal and unit count are kept up to date on every change, so lookups
+ * and totals do not scan the cart. Each line's share of the subtotal is
+ * remembered and repriced whenever the line changes, so a price change
+ * between adding and removing a line can't skew the total. getSubtotal()
+ * reprices every line only when some product price changed since the cart
+ * was last priced. Not thread-safe; callers lock the cart.
+ */
+public class Cart {
+    private Map<String, CartItem> items; // productId -> line, insertion order
+    private Map<String, Double> lineTotals; // productId -> amount the line adds to subtotal
+    private double subtotal;
+    private int totalQuantity;
+    private long pricedAt;               // Product.getPriceVersion() when every line was last priced
+    private volatile long lastAccessed;  // millis, for idle expiry and LRU eviction
+    private boolean detached;            // dropped from its store; holders must look it up again
+
+    // Constructor
+    public Cart() {
+        this.items = new LinkedHashMap<>();
+        this.lineTotals = new HashMap<>();
+        this.pricedAt = Product.getPriceVersion();
+        this.lastAccessed = System.currentTimeMillis();
+    }
+
+    // Line for a product, or null
+    public CartItem getItem(String productId) {
+        return items.get(productId);
+    }
+
+    // Add quantity of a product (new line, or on top of the existing one)
+    public void add(Product product, int quantity) {
+        CartItem item = items.get(product.getProductId());
+        if (item == null) {
+            items.put(product.getProductId(), new CartItem(product, quantity));
+        } else {
+            item.setProduct(product);
+            item.increaseQuantity(quantity);
+        }
+        reprice(product.getProductId());
+        totalQuantity += quantity;
+    }
+
+    // Change a line's quantity; returns false if the product is not in the cart
+    public boolean setQuantity(String productId, int quantity) {
+        CartItem item = items.get(productId);
+        if (item == null) {
+            return false;
+        }
+        int change = quantity - item.getQuantity();
+        item.setQuantity(quantity);
+        reprice(productId);
+        totalQuantity += change;
+        return true;
+    }
+
+    // Remove a line; returns the removed line or null
+    public CartItem remove(String productId) {
+        CartItem item = items.remove(productId);
+        if (item != null) {
+            Double counted = lineTotals.remove(productId);
+            if (items.isEmpty()) {
+                // Start from exact zero rather than accumulated rounding
+                subtotal = 0;
+                totalQuantity = 0;
+            } else {
+                subtotal -= counted;
+                totalQuantity -= item.getQuantity();
+            }
+        }
+        return item;
+    }
+
+    public void clear() {
+        items.clear();
+        lineTotals.clear();
+        subtotal = 0;
+        totalQuantity = 0;
+    }
+
+    // Recompute the running totals from current prices (after a price change)
+    public double recalculate() {
+        // Read the version first: a price changed during the loop shows up
+        // as a newer version next time
+        pricedAt = Product.getPriceVersion();
+        double total = 0;
+        int quantity = 0;
+        for (Map.Entry<String, CartItem> entry : items.entrySet()) {
+            double lineTotal = entry.getValue().calculateSubtotal();
+            lineTotals.put(entry.getKey(), lineTotal);
+            total += lineTotal;
+            quantity += entry.getValue().getQuantity();
+        }
+        subtotal = total;
+        totalQuantity = quantity;
+        return total;
+    }
+
+    // Count a line at its current price, replacing what it counted before
+    private void reprice(String productId) {
+        double lineTotal = items.get(productId).calculateSubtotal();
+        Double counted = lineTotals.put(productId, lineTotal);
+        subtotal += lineTotal - (counted != null ? counted : 0);
+    }
+
+    // Record a use of the cart
+    public void touch(long now) {
+        lastAccessed = now;
+    }
+
+    public long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    public boolean isDetached() {
+        return detached;
+    }
+
+    public void detach() {
+        this.detached = true;
+    }
+
+    // Subtotal at current prices
+    public double getSubtotal() {
+        if (pricedAt != Product.getPriceVersion()) {
+            return recalculate();
+        }
+        return subtotal;
+    }
+
+    // Getters
+
+    public int getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    // Number of lines
+    public int size() {
+        return items.size();
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    // Lines in the order they were added (a copy)
+    public List<CartItem> getItems() {
+        return new ArrayList<>(items.values());
+    }
+}
@@ -1,5 +1,7 @@
 package models;
 
+import utils.RecordCodec;
+
 /**
  * CartItem class - represents an item in shopping cart
  * Demonstrates Composition (Cart HAS-A CartItem)
@@ -53,6 +55,6 @@ public class CartItem {
 
     @Override
     public String toString() {
-        return product.getProductId() + "," + quantity;
+        return new RecordCodec.Writer(",").add(product.getProductId()).add(quantity).toString();
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package models;
 
+import utils.RecordCodec;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -55,14 +56,19 @@ public class Customer extends User {
 
     @Override
     public String toString() {
-        return super.toString() + "," + address + ",CUSTOMER";
+        return toRecord().add(address).add("CUSTOMER").toString();
     }
 
     // Parse from CSV string
     public static Customer fromString(String data) {
-        String[] parts = data.split(",");
-        if (parts.length >= 6) {
-            return new Customer(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5]);
+        return fromRecord(new RecordCodec.Reader(data, ','));
+    }
+
+    // Parse from the fields of a CSV record
+    public static Customer fromRecord(RecordCodec.Reader fields) {
+        if (fields.countFields() >= 6) {
+            return new Customer(fields.nextString(), fields.nextString(), fields.nextString(),
+                                fields.nextString(), fields.nextString(), fields.nextString());
         }
         return null;
     }
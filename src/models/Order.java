@@ -1,5 +1,6 @@
 package models;
 
+import utils.RecordCodec;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -28,6 +29,15 @@ public class Order {
         this.status = "PENDING";
     }
 
+    // Constructor for orders read back from storage (skips formatting the current time)
+    public Order(String orderId, String customerId, String orderDate) {
+        this.orderId = orderId;
+        this.customerId = customerId;
+        this.items = new ArrayList<>();
+        this.orderDate = orderDate;
+        this.status = "PENDING";
+    }
+
     // Getters and Setters
     public String getOrderId() {
         return orderId;
@@ -118,22 +128,16 @@ public class Order {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(orderId).append(",")
-          .append(customerId).append(",")
-          .append(orderDate).append(",")
-          .append(status).append(",")
-          .append(subtotal).append(",")
-          .append(tax).append(",")
-          .append(totalAmount).append(",");
-        
         // Add items
-        for (int i = 0; i < items.size(); i++) {
-            sb.append(items.get(i).toString());
-            if (i < items.size() - 1) {
-                sb.append(";");
-            }
+        RecordCodec.Writer itemList = new RecordCodec.Writer(";,");
+        for (OrderItem item : items) {
+            itemList.addRaw(item.toString());
         }
-        return sb.toString();
+
+        return new RecordCodec.Writer(",")
+            .add(orderId).add(customerId).add(orderDate).add(status)
+            .add(subtotal).add(tax).add(totalAmount)
+            .addRaw(itemList.toString())
+            .toString();
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package models;
 
+import utils.RecordCodec;
+
 /**
  * OrderItem class - represents a single item in an order
  */
@@ -62,17 +64,29 @@ public class OrderItem {
 
     @Override
     public String toString() {
-        return productId + ":" + productName + ":" + quantity + ":" + price;
+        // Nested inside an order record, so ';' and ',' are escaped too
+        return new RecordCodec.Writer(":;,")
+            .add(productId).add(productName).add(quantity).add(price)
+            .toString();
     }
 
     // Parse from string
     public static OrderItem fromString(String data) {
-        String[] parts = data.split(":");
-        if (parts.length >= 4) {
-            return new OrderItem(parts[0], parts[1], 
-                               Integer.parseInt(parts[2]), 
-                               Double.parseDouble(parts[3]));
+        return fromRecord(new RecordCodec.Reader(data, ':'));
+    }
+
+    // Parse from the fields of a productId:productName:quantity:price record
+    public static OrderItem fromRecord(RecordCodec.Reader fields) {
+        int count = fields.countFields();
+        if (count < 4) {
+            return null;
+        }
+        String productId = fields.nextString();
+        String productName = fields.nextString();
+        // Older files did not escape ':' inside names
+        for (int extra = count - 4; extra > 0; extra--) {
+            productName += ":" + fields.nextString();
         }
-        return null;
+        return new OrderItem(productId, productName, fields.nextInt(), fields.nextDouble());
     }
 }
\ No newline at end of file
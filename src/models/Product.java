@@ -1,15 +1,22 @@
 package models;
 
+import utils.RecordCodec;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Product class - represents products in the e-commerce system
  * Demonstrates Encapsulation
  */
 public class Product {
+    // Bumped on every price change, so holders of running totals (carts)
+    // can tell cheaply whether any price may have moved since they priced
+    private static final AtomicLong priceVersion = new AtomicLong();
+
     private String productId;
     private String name;
     private String description;
     private double price;
-    private int stock;
+    private volatile int stock; // read without locks by display and cart code
     private String category;
 
     // Constructor
@@ -52,7 +59,14 @@ public class Product {
     }
 
     public void setPrice(double price) {
-        this.price = price;
+        if (price != this.price) {
+            this.price = price;
+            priceVersion.incrementAndGet();
+        }
+    }
+
+    public static long getPriceVersion() {
+        return priceVersion.get();
     }
 
     public int getStock() {
@@ -76,7 +90,7 @@ public class Product {
         return stock > 0;
     }
 
-    public boolean updateStock(int quantity) {
+    public synchronized boolean updateStock(int quantity) {
         if (stock + quantity >= 0) {
             stock += quantity;
             return true;
@@ -103,20 +117,26 @@ public class Product {
 
     @Override
     public String toString() {
-        return productId + "," + name + "," + description + "," + price + "," + stock + "," + category;
+        return new RecordCodec.Writer(",")
+            .add(productId).add(name).add(description).add(price).add(stock).add(category)
+            .toString();
     }
 
     // Parse from CSV string
     public static Product fromString(String data) {
-        String[] parts = data.split(",");
-        if (parts.length >= 6) {
+        return fromRecord(new RecordCodec.Reader(data, ','));
+    }
+
+    // Parse from the fields of a CSV record
+    public static Product fromRecord(RecordCodec.Reader fields) {
+        if (fields.countFields() >= 6) {
             return new Product(
-                parts[0],
-                parts[1],
-                parts[2],
-                Double.parseDouble(parts[3]),
-                Integer.parseInt(parts[4]),
-                parts[5]
+                fields.nextString(),
+                fields.nextString(),
+                fields.nextString(),
+                fields.nextDouble(),
+                fields.nextInt(),
+                fields.nextString()
             );
         }
         return null;
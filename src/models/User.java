@@ -1,5 +1,7 @@
 package models;
 
+import utils.RecordCodec;
+
 /**
  * Abstract User class - demonstrates Abstraction and Encapsulation
  * Parent class for Customer and Admin
@@ -73,13 +75,18 @@ public abstract class User {
 
     // Common methods
     public boolean login(String email, String password) {
-        if (this.email.equals(email) && this.password.equals(password)) {
+        if (checkCredentials(email, password)) {
             this.isLoggedIn = true;
             return true;
         }
         return false;
     }
 
+    // Whether email and password match, without logging in
+    public boolean checkCredentials(String email, String password) {
+        return this.email.equals(email) && this.password.equals(password);
+    }
+
     public void logout() {
         this.isLoggedIn = false;
     }
@@ -92,6 +99,11 @@ public abstract class User {
 
     @Override
     public String toString() {
-        return userId + "," + name + "," + email + "," + password + "," + phone;
+        return toRecord().toString();
+    }
+
+    // Common fields as a CSV record; subclasses add their own
+    protected RecordCodec.Writer toRecord() {
+        return new RecordCodec.Writer(",").add(userId).add(name).add(email).add(password).add(phone);
     }
 }
\ No newline at end of file
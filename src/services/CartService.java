@@ -1,18 +1,95 @@
 package services;
 
+import models.Cart;
 import models.CartItem;
 import models.Product;
+import utils.DataFormat;
+import utils.FileHandler;
+import utils.RecordCodec;
+import utils.StripedLocks;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * CartService - manages shopping cart operations
  * Demonstrates session-based cart management
+ *
+ * Thread safety: carts live in a ConcurrentHashMap and every operation on a
+ * cart holds that cart's own lock, so different users' carts never contend.
+ *
+ * Memory: a cart left idle longer than the idle timeout expires (its items
+ * are dropped), and at most maxCarts carts stay resident. Going over the
+ * limit evicts the least recently used carts in one batch. A background
+ * thread also purges expired carts (and their files) periodically, so
+ * carts of users who never come back don't pile up.
+ *
+ * Persistence (only with a ProductService to look products up again): each
+ * cart is saved as data/carts/<userId>.txt, one "productId,qty" line per
+ * item. Changed carts are marked dirty and written in batches by a
+ * background thread; evicted carts leave memory at once and are written by
+ * that thread too, their items kept aside until then. Nothing is loaded at
+ * startup - a user's cart is read back the first time it is used.
  */
 public class CartService {
-    private Map<String, List<CartItem>> userCarts; // userId -> cart items
+    private static final String CARTS_DIR = "data/carts";
+    private static final int DEFAULT_MAX_CARTS = 10000;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 24L * 60 * 60 * 1000; // one day
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long PURGE_INTERVAL_MILLIS = 60 * 1000; // at most; sooner for short timeouts
 
+    private Map<String, Cart> userCarts; // userId -> cart
+    private Set<String> spilledUsers;    // users whose cart is on disk, not in userCarts
+    private Set<String> dirtyUsers;      // users whose cart changed since it was saved
+    private Map<String, List<CartItem>> unsavedSpills; // evicted carts not yet written: userId -> items
+    private ProductService productService;
+    private FileHandler fileHandler;
+    private int maxCarts;
+    private long idleTimeoutMillis;
+    private StripedLocks moveLocks;      // per-user: a cart moves between memory and disk under its stripe
+    private AtomicBoolean evicting;
+    private ScheduledExecutorService maintenance; // background flush and purge
+
+    // In-memory carts only: evicted carts are dropped
     public CartService() {
-        this.userCarts = new HashMap<>();
+        this(null, DEFAULT_MAX_CARTS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    // Carts are saved to disk and reloaded through productService
+    public CartService(ProductService productService) {
+        this(productService, DEFAULT_MAX_CARTS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    // productService may be null to keep carts in memory only
+    public CartService(ProductService productService, int maxCarts, long idleTimeoutMillis) {
+        DataFormat.upgrade();
+        this.userCarts = new ConcurrentHashMap<>();
+        this.spilledUsers = ConcurrentHashMap.newKeySet();
+        this.dirtyUsers = ConcurrentHashMap.newKeySet();
+        this.unsavedSpills = new ConcurrentHashMap<>();
+        this.productService = productService;
+        this.fileHandler = new FileHandler();
+        this.maxCarts = Math.max(1, maxCarts);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.moveLocks = new StripedLocks(64);
+        this.evicting = new AtomicBoolean(false);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cart-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (productService != null) {
+            findSavedCarts();
+            maintenance.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS,
+                                               FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        long purgeInterval = Math.max(FLUSH_INTERVAL_MILLIS, Math.min(PURGE_INTERVAL_MILLIS, idleTimeoutMillis));
+        maintenance.scheduleWithFixedDelay(this::purgeQuietly, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
     }
 
     // Add item to cart
@@ -28,85 +105,91 @@ public class CartService {
         }
 
         // Get or create cart for user
-        List<CartItem> cart = userCarts.getOrDefault(userId, new ArrayList<>());
-
-        // Check if product already in cart
-        CartItem existingItem = findCartItem(cart, product.getProductId());
-        if (existingItem != null) {
-            // Update quantity
-            int newQuantity = existingItem.getQuantity() + quantity;
-            if (newQuantity > product.getStock()) {
-                System.out.println("Cannot add more. Stock limit: " + product.getStock());
-                return false;
+        return withCart(userId, true, false, true, cart -> {
+            // Check if product already in cart
+            CartItem existingItem = cart.getItem(product.getProductId());
+            if (existingItem != null) {
+                // Update quantity
+                int newQuantity = existingItem.getQuantity() + quantity;
+                if (newQuantity > product.getStock()) {
+                    System.out.println("Cannot add more. Stock limit: " + product.getStock());
+                    return false;
+                }
+                cart.add(product, quantity);
+                System.out.println("Updated quantity in cart!");
+            } else {
+                // Add new item
+                cart.add(product, quantity);
+                System.out.println("Product added to cart!");
             }
-            existingItem.setQuantity(newQuantity);
-            System.out.println("Updated quantity in cart!");
-        } else {
-            // Add new item
-            cart.add(new CartItem(product, quantity));
-            System.out.println("Product added to cart!");
-        }
-
-        userCarts.put(userId, cart);
-        return true;
+            return true;
+        });
     }
 
     // Remove item from cart
     public boolean removeFromCart(String userId, String productId) {
-        List<CartItem> cart = userCarts.get(userId);
-        if (cart == null || cart.isEmpty()) {
-            System.out.println("Cart is empty!");
+        Boolean removed = withCart(userId, false, null, true, cart -> {
+            if (cart.isEmpty()) {
+                return null;
+            }
+            if (cart.remove(productId) != null) {
+                System.out.println("Item removed from cart!");
+                return true;
+            }
+            System.out.println("Item not found in cart!");
             return false;
-        }
+        });
 
-        CartItem item = findCartItem(cart, productId);
-        if (item != null) {
-            cart.remove(item);
-            System.out.println("Item removed from cart!");
-            return true;
+        if (removed == null) {
+            System.out.println("Cart is empty!");
+            return false;
         }
-
-        System.out.println("Item not found in cart!");
-        return false;
+        return removed;
     }
 
     // Update quantity
     public boolean updateQuantity(String userId, String productId, int newQuantity) {
-        List<CartItem> cart = userCarts.get(userId);
-        if (cart == null) {
-            System.out.println("Cart is empty!");
-            return false;
-        }
-
-        CartItem item = findCartItem(cart, productId);
-        if (item != null) {
+        Boolean updated = withCart(userId, false, null, true, cart -> {
+            CartItem item = cart.getItem(productId);
+            if (item == null) {
+                System.out.println("Item not found in cart!");
+                return false;
+            }
             if (newQuantity <= 0) {
-                cart.remove(item);
+                cart.remove(productId);
                 System.out.println("Item removed from cart!");
             } else if (newQuantity <= item.getProduct().getStock()) {
-                item.setQuantity(newQuantity);
+                cart.setQuantity(productId, newQuantity);
                 System.out.println("Quantity updated!");
             } else {
                 System.out.println("Insufficient stock! Available: " + item.getProduct().getStock());
                 return false;
             }
             return true;
-        }
+        });
 
-        System.out.println("Item not found in cart!");
-        return false;
+        if (updated == null) {
+            System.out.println("Cart is empty!");
+            return false;
+        }
+        return updated;
     }
 
-    // Get cart items
+    // Get cart items (a copy, safe to use while the cart keeps changing)
     public List<CartItem> getCart(String userId) {
-        return userCarts.getOrDefault(userId, new ArrayList<>());
+        return withCart(userId, false, new ArrayList<>(), false, Cart::getItems);
     }
 
     // Display cart
     public void displayCart(String userId) {
-        List<CartItem> cart = getCart(userId);
-        
-        if (cart.isEmpty()) {
+        // Every line is printed anyway, so pick up any price changes
+        double[] total = new double[1];
+        List<CartItem> items = withCart(userId, false, Collections.<CartItem>emptyList(), false, cart -> {
+            total[0] = cart.recalculate();
+            return cart.getItems();
+        });
+
+        if (items.isEmpty()) {
             System.out.println("\nYour cart is empty!");
             return;
         }
@@ -114,54 +197,41 @@ public class CartService {
         System.out.println("\n========================================");
         System.out.println("          YOUR SHOPPING CART");
         System.out.println("========================================");
-        
-        double total = 0;
-        for (CartItem item : cart) {
+
+        for (CartItem item : items) {
             item.display();
-            total += item.calculateSubtotal();
         }
-        
+
         System.out.println("----------------------------------------");
-        System.out.printf("Total: $%.2f%n", total);
+        System.out.printf("Total: $%.2f%n", total[0]);
         System.out.println("========================================\n");
     }
 
-    // Calculate total
+    // Calculate total at current prices (the cart reprices its lines only
+    // if a price changed since they were priced)
     public double calculateTotal(String userId) {
-        List<CartItem> cart = getCart(userId);
-        double total = 0;
-        for (CartItem item : cart) {
-            total += item.calculateSubtotal();
-        }
-        return total;
+        return withCart(userId, false, 0.0, false, Cart::getSubtotal);
     }
 
-    // Clear cart
+    // Clear cart (the cart is dropped from the store, not kept as an empty shell)
     public void clearCart(String userId) {
-        userCarts.put(userId, new ArrayList<>());
+        withCart(userId, false, null, true, cart -> {
+            cart.clear();
+            cart.detach();
+            userCarts.remove(userId, cart);
+            return null;
+        });
         System.out.println("Cart cleared!");
     }
 
     // Check if cart is empty
     public boolean isEmpty(String userId) {
-        List<CartItem> cart = getCart(userId);
-        return cart == null || cart.isEmpty();
+        return getItemCount(userId) == 0;
     }
 
-    // Get item count
+    // Get item count (number of cart lines)
     public int getItemCount(String userId) {
-        List<CartItem> cart = getCart(userId);
-        return cart.size();
-    }
-
-    // Helper method to find cart item
-    private CartItem findCartItem(List<CartItem> cart, String productId) {
-        for (CartItem item : cart) {
-            if (item.getProduct().getProductId().equals(productId)) {
-                return item;
-            }
-        }
-        return null;
+        return withCart(userId, false, 0, false, Cart::size);
     }
 
     // Validate cart (check stock availability)
@@ -175,4 +245,293 @@ public class CartService {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    // Number of carts currently held in memory
+    public int getResidentCartCount() {
+        return userCarts.size();
+    }
+
+    // Drop every cart (resident or saved) idle longer than the timeout;
+    // returns how many were dropped
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        for (Map.Entry<String, Cart> entry : userCarts.entrySet()) {
+            if (isExpired(entry.getValue().getLastAccessed(), now)
+                    && evict(entry.getKey(), entry.getValue(), now)) {
+                purged++;
+            }
+        }
+        for (String userId : spilledUsers) {
+            int[] held = moveLocks.lockAll(Collections.singleton(userId));
+            try {
+                // A cart still waiting to be written was evicted unexpired
+                File file = new File(cartFile(userId));
+                if (spilledUsers.contains(userId) && !unsavedSpills.containsKey(userId)
+                        && isExpired(file.lastModified(), now)) {
+                    spilledUsers.remove(userId);
+                    fileHandler.deleteFile(file.getPath());
+                    purged++;
+                }
+            } finally {
+                moveLocks.unlockAll(held);
+            }
+        }
+        return purged;
+    }
+
+    // Scheduled purge; an exception would cancel the schedule, so report it
+    private void purgeQuietly() {
+        try {
+            purgeExpired();
+        } catch (RuntimeException e) {
+            System.err.println("Error purging expired carts: " + e.getMessage());
+        }
+    }
+
+    // Write every dirty cart now, evicted ones included (the background
+    // flush does this every second)
+    public void flush() {
+        for (String userId : dirtyUsers) {
+            if (!dirtyUsers.remove(userId)) {
+                continue;
+            }
+            int[] held = moveLocks.lockAll(Collections.singleton(userId));
+            try {
+                Cart cart = userCarts.get(userId);
+                List<CartItem> items = Collections.emptyList();
+                if (cart != null) {
+                    synchronized (cart) {
+                        items = cart.getItems();
+                    }
+                } else if (spilledUsers.contains(userId)) {
+                    items = unsavedSpills.get(userId);
+                    if (items == null) {
+                        continue; // already on disk
+                    }
+                }
+                if (!saveCart(userId, items)) {
+                    dirtyUsers.add(userId); // try again next round
+                } else if (cart == null) {
+                    unsavedSpills.remove(userId, items);
+                }
+            } finally {
+                moveLocks.unlockAll(held);
+            }
+        }
+    }
+
+    // Run action on the user's cart under its lock and return its result.
+    // Returns ifMissing if the user has no cart and create is not set; set
+    // modifies if action may change the cart, so it gets saved.
+    private <T> T withCart(String userId, boolean create, T ifMissing, boolean modifies,
+                           Function<Cart, T> action) {
+        while (true) {
+            Cart cart = residentCart(userId, create);
+            if (cart == null) {
+                return ifMissing;
+            }
+            synchronized (cart) {
+                if (cart.isDetached()) {
+                    continue; // evicted or cleared while we waited
+                }
+                long now = System.currentTimeMillis();
+                if (isExpired(cart.getLastAccessed(), now)) {
+                    cart.clear();
+                    modifies = true;
+                }
+                cart.touch(now);
+                T result = action.apply(cart);
+                if (modifies && productService != null) {
+                    dirtyUsers.add(userId);
+                }
+                return result;
+            }
+        }
+    }
+
+    // The user's cart in memory, reading a saved one back or creating a new
+    // one (if create is set) when needed; null if there is none
+    private Cart residentCart(String userId, boolean create) {
+        Cart cart = userCarts.get(userId);
+        if (cart != null || (!create && !spilledUsers.contains(userId))) {
+            return cart;
+        }
+
+        int[] held = moveLocks.lockAll(Collections.singleton(userId));
+        try {
+            cart = userCarts.get(userId);
+            if (cart != null) {
+                return cart;
+            }
+            if (spilledUsers.remove(userId)) {
+                List<CartItem> unsaved = unsavedSpills.remove(userId);
+                if (unsaved != null) {
+                    // Evicted moments ago and not written yet; it stays dirty
+                    cart = new Cart();
+                    for (CartItem item : unsaved) {
+                        cart.add(item.getProduct(), item.getQuantity());
+                    }
+                    dirtyUsers.add(userId);
+                } else {
+                    // The file stays as the cart's saved copy (unless expired)
+                    cart = loadCart(userId);
+                    if (cart == null) {
+                        fileHandler.deleteFile(cartFile(userId));
+                    }
+                }
+            }
+            if (cart == null) {
+                if (!create) {
+                    return null;
+                }
+                cart = new Cart();
+            }
+            userCarts.put(userId, cart);
+        } finally {
+            moveLocks.unlockAll(held);
+        }
+
+        if (userCarts.size() > maxCarts) {
+            evictLeastRecentlyUsed();
+        }
+        return cart;
+    }
+
+    // Bring the store back under 90% of maxCarts, expired carts first, then
+    // least recently used. One thread evicts at a time; others carry on.
+    // Evicted carts are written by the maintenance thread, not here.
+    private void evictLeastRecentlyUsed() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            // Snapshot access times so the sort sees stable keys
+            List<Resident> residents = new ArrayList<>(userCarts.size());
+            for (Map.Entry<String, Cart> entry : userCarts.entrySet()) {
+                residents.add(new Resident(entry.getKey(), entry.getValue()));
+            }
+            Collections.sort(residents);
+
+            int target = maxCarts - maxCarts / 10;
+            for (Resident resident : residents) {
+                if (userCarts.size() <= target && !isExpired(resident.lastAccessed, now)) {
+                    break;
+                }
+                evict(resident.userId, resident.cart, now);
+            }
+        } finally {
+            evicting.set(false);
+        }
+        if (productService != null) {
+            maintenance.execute(this::flush);
+        }
+    }
+
+    // Take one cart out of memory: expired and empty carts are dropped,
+    // others are spilled when persistence is enabled. Either way the file
+    // is brought up to date by the next flush, so no I/O happens here.
+    // Returns false if the cart was already gone.
+    private boolean evict(String userId, Cart cart, long now) {
+        int[] held = moveLocks.lockAll(Collections.singleton(userId));
+        try {
+            synchronized (cart) {
+                if (cart.isDetached()) {
+                    return false;
+                }
+                if (productService != null) {
+                    if (!cart.isEmpty() && !isExpired(cart.getLastAccessed(), now)) {
+                        unsavedSpills.put(userId, cart.getItems());
+                        spilledUsers.add(userId);
+                    }
+                    dirtyUsers.add(userId); // flush writes the spill, or deletes the file
+                }
+                cart.detach();
+                userCarts.remove(userId, cart);
+                return true;
+            }
+        } finally {
+            moveLocks.unlockAll(held);
+        }
+    }
+
+    // Write a cart's file (an empty cart has none); caller holds the user's move lock
+    private boolean saveCart(String userId, List<CartItem> items) {
+        if (items.isEmpty()) {
+            fileHandler.deleteFile(cartFile(userId));
+            return true;
+        }
+        List<String> lines = new ArrayList<>(items.size());
+        for (CartItem item : items) {
+            lines.add(item.toString());
+        }
+        return fileHandler.writeFile(cartFile(userId), lines);
+    }
+
+    // Rebuild a saved cart (lines whose product is gone are skipped); null
+    // if the cart has expired or could not be read. Caller holds the user's
+    // move lock.
+    private Cart loadCart(String userId) {
+        File file = new File(cartFile(userId));
+        long savedAt = file.lastModified();
+        if (savedAt == 0 || isExpired(savedAt, System.currentTimeMillis())) {
+            return null;
+        }
+
+        Cart cart = new Cart();
+        boolean read = fileHandler.readLines(file.getPath(), line -> {
+            try {
+                RecordCodec.Reader fields = new RecordCodec.Reader(line, ',');
+                Product product = productService.getProductById(fields.nextString());
+                int quantity = fields.nextInt();
+                if (product != null && quantity > 0) {
+                    cart.add(product, quantity);
+                }
+            } catch (Exception e) {
+                System.err.println("Error loading cart line for " + userId + ": " + e.getMessage());
+            }
+        });
+        return read ? cart : null;
+    }
+
+    // Carts saved by an earlier run (only the names are read here)
+    private void findSavedCarts() {
+        File[] files = new File(CARTS_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".txt")) {
+                spilledUsers.add(name.substring(0, name.length() - 4));
+            }
+        }
+    }
+
+    private String cartFile(String userId) {
+        return CARTS_DIR + "/" + userId + ".txt";
+    }
+
+    private boolean isExpired(long lastAccessed, long now) {
+        return now - lastAccessed > idleTimeoutMillis;
+    }
+
+    // Eviction candidate, least recently used first
+    private static class Resident implements Comparable<Resident> {
+        private final String userId;
+        private final Cart cart;
+        private final long lastAccessed;
+
+        Resident(String userId, Cart cart) {
+            this.userId = userId;
+            this.cart = cart;
+            this.lastAccessed = cart.getLastAccessed();
+        }
+
+        @Override
+        public int compareTo(Resident other) {
+            return Long.compare(lastAccessed, other.lastAccessed);
+        }
+    }
+}
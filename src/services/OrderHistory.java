@@ -0,0 +1,175 @@
+package services;
+
+import models.Order;
+import utils.FileHandler;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * OrderHistory - archive of closed orders in columnar segment files
+ * Each archiving run writes one immutable segment (data/order-history/
+ * segment-N.ohs). Segments are read once at startup and kept in memory in
+ * their encoded form; reports scan them without materializing orders.
+ * Lookups don't scan: an in-memory map from order ID to (segment, row)
+ * and each segment's customer rows lead straight to the matching rows, so
+ * they cost the same however many orders are archived. Safe to read from
+ * many threads at once.
+ */
+public class OrderHistory {
+    private static final String HISTORY_DIR = "data/order-history";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".ohs";
+
+    private List<StoredSegment> segments; // oldest first
+    private Map<String, Long> locations;  // upper-cased orderId -> segment position << 32 | row
+    private FileHandler fileHandler;
+    private int nextSegmentNumber;
+
+    // Constructor
+    public OrderHistory() {
+        this.segments = new CopyOnWriteArrayList<>();
+        this.locations = new ConcurrentHashMap<>();
+        this.fileHandler = new FileHandler();
+        this.nextSegmentNumber = 1;
+        loadSegments();
+    }
+
+    // Read every segment file, in segment number order
+    private void loadSegments() {
+        File[] files = new File(HISTORY_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<StoredSegment> loaded = new ArrayList<>();
+        for (File file : files) {
+            int number = segmentNumber(file.getName());
+            if (number < 0) {
+                continue;
+            }
+            nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+            OrderHistorySegment segment = OrderHistorySegment.decode(fileHandler.readBytes(file.getPath()));
+            if (segment == null) {
+                System.err.println("Skipping unreadable order history segment: " + file.getPath());
+                continue;
+            }
+            loaded.add(new StoredSegment(number, segment));
+        }
+        loaded.sort((a, b) -> Integer.compare(a.number, b.number));
+        for (StoredSegment stored : loaded) {
+            addSegment(stored);
+        }
+    }
+
+    // Add a segment after the others and index its order IDs (a later
+    // segment wins if an ID repeats)
+    private void addSegment(StoredSegment stored) {
+        long position = segments.size();
+        segments.add(stored);
+        stored.segment.forEachOrderId((orderId, row) -> locations.put(orderId.toUpperCase(), position << 32 | row));
+    }
+
+    // Segment number from a file name, or -1 if it isn't a segment
+    private static int segmentNumber(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Write orders (all archivable) as a new segment; true once it is on disk
+    public synchronized boolean append(List<Order> orders) {
+        byte[] data = OrderHistorySegment.encode(orders);
+        String filename = HISTORY_DIR + "/" + SEGMENT_PREFIX + nextSegmentNumber + SEGMENT_SUFFIX;
+        if (!fileHandler.writeBytes(filename, data)) {
+            return false;
+        }
+        addSegment(new StoredSegment(nextSegmentNumber, OrderHistorySegment.decode(data)));
+        nextSegmentNumber++;
+        return true;
+    }
+
+    // Visit every archived order, oldest first
+    public void scan(OrderHistoryVisitor visitor) {
+        for (StoredSegment stored : segments) {
+            stored.segment.scan(visitor);
+        }
+    }
+
+    // Whether an order ID (matched case-insensitively) is archived
+    public boolean contains(String orderId) {
+        return locations.containsKey(orderId.toUpperCase());
+    }
+
+    // Archived order by ID (matched case-insensitively), or null
+    public Order find(String orderId) {
+        Long location = locations.get(orderId.toUpperCase());
+        if (location == null) {
+            return null;
+        }
+        return readOrder(segments.get((int) (location >>> 32)).segment, (int) (long) location);
+    }
+
+    // Archived orders of a customer, newest first
+    public List<Order> findByCustomer(String customerId) {
+        List<Order> customerOrders = new ArrayList<>();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            OrderHistorySegment segment = segments.get(i).segment;
+            int[] rows = segment.rowsOf(customerId);
+            for (int j = rows.length - 1; j >= 0; j--) {
+                customerOrders.add(readOrder(segment, rows[j]));
+            }
+        }
+        return customerOrders;
+    }
+
+    // Number of archived orders
+    public int getOrderCount() {
+        int count = 0;
+        for (StoredSegment stored : segments) {
+            count += stored.segment.getOrderCount();
+        }
+        return count;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    // Rebuild one archived order
+    private static Order readOrder(OrderHistorySegment segment, int row) {
+        Order[] order = new Order[1];
+        segment.read(row, new OrderHistoryVisitor() {
+            @Override
+            public boolean order(String orderId, String customerId, long orderDate, String status, int itemCount) {
+                order[0] = OrderHistorySegment.newOrder(orderId, customerId, orderDate, status);
+                return true;
+            }
+
+            @Override
+            public void item(String productId, String productName, int quantity, long priceCents) {
+                order[0].addItem(OrderHistorySegment.newOrderItem(productId, productName, quantity, priceCents));
+            }
+        });
+        order[0].calculateTotal();
+        return order[0];
+    }
+
+    private static class StoredSegment {
+        private final int number;
+        private final OrderHistorySegment segment;
+
+        StoredSegment(int number, OrderHistorySegment segment) {
+            this.number = number;
+            this.segment = segment;
+        }
+    }
+}
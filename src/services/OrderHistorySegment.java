@@ -0,0 +1,522 @@
+package services;
+
+import models.Order;
+import models.OrderItem;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * OrderHistorySegment - columnar encoding of a batch of closed orders
+ * Layout:
+ *   header:   magic "OHS1" (int), version (int), order count (int),
+ *             item count (int), CRC32 of everything after the header (long)
+ *   sections: each a varint byte length followed by its bytes, in order:
+ *     dictionaries  customer IDs, statuses, products (productId, name pairs)
+ *     order columns order IDs (length shared with the previous ID, then the
+ *                   rest), customer index, date (zigzag delta of epoch
+ *                   seconds from the previous order), status index, item count
+ *     item columns  product index, quantity, price (zigzag cents)
+ * Numbers are unsigned LEB128 varints and strings are a varint UTF-8 length
+ * followed by the bytes. Repeated text is stored once in a dictionary, so a
+ * product name costs one small index per item.
+ *
+ * When a segment is decoded, one pass over its rows records a checkpoint
+ * (every column's read position and the running date and ID) every
+ * CHECKPOINT_ROWS orders, plus each customer's row numbers. A single row
+ * is then read by seeking to the checkpoint before it, so lookups cost the
+ * same however large the history grows.
+ *
+ * Only orders that round-trip exactly are encoded (see isArchivable): dates
+ * in "yyyy-MM-dd HH:mm:ss" and prices in whole cents. Totals are not stored;
+ * they are recomputed from the items, as when orders.txt is loaded.
+ */
+public class OrderHistorySegment {
+    private static final int MAGIC = 0x4F485331; // "OHS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Section order in the file
+    private static final int CUSTOMERS = 0;
+    private static final int STATUSES = 1;
+    private static final int PRODUCTS = 2;
+    private static final int ORDER_IDS = 3;
+    private static final int ORDER_CUSTOMERS = 4;
+    private static final int ORDER_DATES = 5;
+    private static final int ORDER_STATUSES = 6;
+    private static final int ITEM_COUNTS = 7;
+    private static final int ITEM_PRODUCTS = 8;
+    private static final int ITEM_QUANTITIES = 9;
+    private static final int ITEM_PRICES = 10;
+    private static final int SECTION_COUNT = 11;
+
+    // Row columns, in the order of a Rows reader's cursors
+    private static final int[] ROW_SECTIONS = {
+        ORDER_IDS, ORDER_CUSTOMERS, ORDER_DATES, ORDER_STATUSES, ITEM_COUNTS,
+        ITEM_PRODUCTS, ITEM_QUANTITIES, ITEM_PRICES
+    };
+    private static final int CHECKPOINT_ROWS = 64;
+
+    private final byte[] data;
+    private final int[] sectionStart;
+    private final int[] sectionEnd;
+    private final int orderCount;
+    private final int itemCount;
+    private final String[] customers;
+    private final String[] statuses;
+    private final String[] productIds;
+    private final String[] productNames;
+    private final Map<String, Integer> customerIndex;
+    private int[][] customerRows;        // customer index -> row numbers, oldest first
+    private int[] checkpointPositions;   // ROW_SECTIONS.length cursor positions per checkpoint
+    private long[] checkpointDates;      // date of the row before each checkpoint
+    private byte[][] checkpointIds;      // ID of the row before each checkpoint
+
+    private OrderHistorySegment(byte[] data, int[] sectionStart, int[] sectionEnd, int orderCount, int itemCount) {
+        this.data = data;
+        this.sectionStart = sectionStart;
+        this.sectionEnd = sectionEnd;
+        this.orderCount = orderCount;
+        this.itemCount = itemCount;
+        this.customers = readStrings(section(CUSTOMERS), 1);
+        this.statuses = readStrings(section(STATUSES), 1);
+        String[] products = readStrings(section(PRODUCTS), 2);
+        this.productIds = new String[products.length / 2];
+        this.productNames = new String[products.length / 2];
+        for (int i = 0; i < productIds.length; i++) {
+            productIds[i] = products[2 * i];
+            productNames[i] = products[2 * i + 1];
+        }
+        this.customerIndex = new HashMap<>();
+        for (int i = 0; i < customers.length; i++) {
+            customerIndex.put(customers[i], i);
+        }
+        buildRowIndex();
+    }
+
+    // Walk every row once, recording checkpoints and each customer's rows
+    // (this also checks that every column decodes)
+    private void buildRowIndex() {
+        int checkpoints = (orderCount + CHECKPOINT_ROWS - 1) / CHECKPOINT_ROWS;
+        checkpointPositions = new int[checkpoints * ROW_SECTIONS.length];
+        checkpointDates = new long[checkpoints];
+        checkpointIds = new byte[checkpoints][];
+        int[] rowCustomers = new int[orderCount];
+        int[] rowsPerCustomer = new int[customers.length];
+
+        Rows rows = new Rows();
+        for (int i = 0; i < orderCount; i++) {
+            if (i % CHECKPOINT_ROWS == 0) {
+                int checkpoint = i / CHECKPOINT_ROWS;
+                for (int c = 0; c < ROW_SECTIONS.length; c++) {
+                    checkpointPositions[checkpoint * ROW_SECTIONS.length + c] = rows.cursors[c].pos;
+                }
+                checkpointDates[checkpoint] = rows.date;
+                checkpointIds[checkpoint] = Arrays.copyOf(rows.id, rows.cursors[0].idLength);
+            }
+            rowCustomers[i] = rows.next(null);
+            rowsPerCustomer[rowCustomers[i]]++;
+        }
+
+        customerRows = new int[customers.length][];
+        for (int c = 0; c < customers.length; c++) {
+            customerRows[c] = new int[rowsPerCustomer[c]];
+            rowsPerCustomer[c] = 0;
+        }
+        for (int i = 0; i < orderCount; i++) {
+            customerRows[rowCustomers[i]][rowsPerCustomer[rowCustomers[i]]++] = i;
+        }
+    }
+
+    // Whether an order can be stored without losing anything
+    public static boolean isArchivable(Order order) {
+        if (order.getOrderId() == null || order.getCustomerId() == null || order.getStatus() == null
+                || parseDate(order.getOrderDate()) == null) {
+            return false;
+        }
+        for (OrderItem item : order.getItems()) {
+            if (item.getProductId() == null || item.getProductName() == null || item.getQuantity() < 0
+                    || Math.round(item.getPrice() * 100) / 100.0 != item.getPrice()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Encode orders (all archivable) into segment bytes
+    public static byte[] encode(List<Order> orders) {
+        Map<String, Integer> customerDictionary = new LinkedHashMap<>();
+        Map<String, Integer> statusDictionary = new LinkedHashMap<>();
+        Map<List<String>, Integer> productDictionary = new LinkedHashMap<>();
+        Column[] columns = new Column[SECTION_COUNT];
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            columns[i] = new Column();
+        }
+
+        byte[] previousId = new byte[0];
+        long previousDate = 0;
+        int items = 0;
+        for (Order order : orders) {
+            byte[] id = order.getOrderId().getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            while (shared < id.length && shared < previousId.length && id[shared] == previousId[shared]) {
+                shared++;
+            }
+            columns[ORDER_IDS].putVarint(shared);
+            columns[ORDER_IDS].putVarint(id.length - shared);
+            columns[ORDER_IDS].put(id, shared, id.length - shared);
+            previousId = id;
+
+            long date = parseDate(order.getOrderDate());
+            columns[ORDER_CUSTOMERS].putVarint(indexOf(customerDictionary, order.getCustomerId()));
+            columns[ORDER_DATES].putVarint(zigzag(date - previousDate));
+            previousDate = date;
+            columns[ORDER_STATUSES].putVarint(indexOf(statusDictionary, order.getStatus()));
+            columns[ITEM_COUNTS].putVarint(order.getItems().size());
+
+            for (OrderItem item : order.getItems()) {
+                columns[ITEM_PRODUCTS].putVarint(
+                    indexOf(productDictionary, Arrays.asList(item.getProductId(), item.getProductName())));
+                columns[ITEM_QUANTITIES].putVarint(item.getQuantity());
+                columns[ITEM_PRICES].putVarint(zigzag(Math.round(item.getPrice() * 100)));
+                items++;
+            }
+        }
+
+        for (String customerId : customerDictionary.keySet()) {
+            columns[CUSTOMERS].putString(customerId);
+        }
+        for (String status : statusDictionary.keySet()) {
+            columns[STATUSES].putString(status);
+        }
+        for (List<String> product : productDictionary.keySet()) {
+            columns[PRODUCTS].putString(product.get(0));
+            columns[PRODUCTS].putString(product.get(1));
+        }
+
+        Column body = new Column();
+        for (Column column : columns) {
+            body.putVarint(column.size);
+            body.put(column.bytes, 0, column.size);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body.bytes, 0, body.size);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + body.size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(orders.size());
+        buffer.putInt(items);
+        buffer.putLong(crc.getValue());
+        buffer.put(body.bytes, 0, body.size);
+        return buffer.array();
+    }
+
+    // Decode segment bytes; null if they are not a complete, valid segment
+    public static OrderHistorySegment decode(byte[] data) {
+        if (data == null || data.length < HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int orderCount = buffer.getInt();
+        int itemCount = buffer.getInt();
+        long checksum = buffer.getLong();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, HEADER_BYTES, data.length - HEADER_BYTES);
+        if (crc.getValue() != checksum || orderCount < 0 || itemCount < 0) {
+            return null;
+        }
+
+        try {
+            int[] sectionStart = new int[SECTION_COUNT];
+            int[] sectionEnd = new int[SECTION_COUNT];
+            Cursor cursor = new Cursor(data, HEADER_BYTES, data.length);
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                long length = cursor.varint();
+                if (length > cursor.end - cursor.pos) {
+                    return null;
+                }
+                sectionStart[i] = cursor.pos;
+                sectionEnd[i] = cursor.pos + (int) length;
+                cursor.pos = sectionEnd[i];
+            }
+            if (cursor.pos != data.length) {
+                return null;
+            }
+            return new OrderHistorySegment(data, sectionStart, sectionEnd, orderCount, itemCount);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getSizeInBytes() {
+        return data.length;
+    }
+
+    // Row numbers of a customer's orders, oldest first
+    public int[] rowsOf(String customerId) {
+        Integer customer = customerIndex.get(customerId);
+        return customer != null ? customerRows[customer] : new int[0];
+    }
+
+    // Visit every order ID with its row number, oldest first, without
+    // reading the other columns
+    public void forEachOrderId(ObjIntConsumer<String> consumer) {
+        Cursor ids = section(ORDER_IDS);
+        byte[] id = new byte[16];
+        for (int i = 0; i < orderCount; i++) {
+            id = ids.nextId(id);
+            consumer.accept(new String(id, 0, ids.idLength, StandardCharsets.UTF_8), i);
+        }
+    }
+
+    // Walk every order, oldest first, reading the columns side by side
+    public void scan(OrderHistoryVisitor visitor) {
+        Rows rows = new Rows();
+        for (int i = 0; i < orderCount; i++) {
+            rows.next(visitor);
+        }
+    }
+
+    // Visit one order by row number: seek to the checkpoint at or before it
+    // and skip the (fewer than CHECKPOINT_ROWS) rows in between
+    public void read(int row, OrderHistoryVisitor visitor) {
+        if (row < 0 || row >= orderCount) {
+            throw new IndexOutOfBoundsException("No row " + row);
+        }
+        int checkpoint = row / CHECKPOINT_ROWS;
+        Rows rows = new Rows();
+        for (int c = 0; c < ROW_SECTIONS.length; c++) {
+            rows.cursors[c].pos = checkpointPositions[checkpoint * ROW_SECTIONS.length + c];
+        }
+        rows.date = checkpointDates[checkpoint];
+        byte[] id = checkpointIds[checkpoint];
+        rows.id = Arrays.copyOf(id, Math.max(id.length, 16));
+        rows.cursors[0].idLength = id.length;
+
+        for (int i = checkpoint * CHECKPOINT_ROWS; i < row; i++) {
+            rows.next(null);
+        }
+        rows.next(visitor);
+    }
+
+    // Rebuild an Order from scanned fields (items are added by the caller)
+    public static Order newOrder(String orderId, String customerId, long orderDate, String status) {
+        Order order = new Order(orderId, customerId,
+                                LocalDateTime.ofEpochSecond(orderDate, 0, ZoneOffset.UTC).format(DATE_FORMAT));
+        order.setStatus(status);
+        return order;
+    }
+
+    public static OrderItem newOrderItem(String productId, String productName, int quantity, long priceCents) {
+        return new OrderItem(productId, productName, quantity, priceCents / 100.0);
+    }
+
+    private Cursor section(int section) {
+        return new Cursor(data, sectionStart[section], sectionEnd[section]);
+    }
+
+    // Read a dictionary section of strings; its size must be a multiple of perEntry
+    private static String[] readStrings(Cursor cursor, int perEntry) {
+        String[] strings = new String[16];
+        int count = 0;
+        while (cursor.pos < cursor.end) {
+            if (count == strings.length) {
+                strings = Arrays.copyOf(strings, count * 2);
+            }
+            strings[count++] = cursor.string();
+        }
+        if (count % perEntry != 0) {
+            throw new IllegalArgumentException("Incomplete dictionary");
+        }
+        return Arrays.copyOf(strings, count);
+    }
+
+    private static <K> int indexOf(Map<K, Integer> dictionary, K key) {
+        Integer index = dictionary.get(key);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(key, index);
+        }
+        return index;
+    }
+
+    // Epoch seconds of a stored date (read as UTC), or null if it doesn't
+    // parse back to the same text
+    private static Long parseDate(String orderDate) {
+        if (orderDate == null) {
+            return null;
+        }
+        try {
+            LocalDateTime date = LocalDateTime.parse(orderDate, DATE_FORMAT);
+            return date.format(DATE_FORMAT).equals(orderDate) ? date.toEpochSecond(ZoneOffset.UTC) : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads rows in order, one cursor per row column.
+     */
+    private class Rows {
+        private final Cursor[] cursors = new Cursor[ROW_SECTIONS.length];
+        private byte[] id = new byte[16];
+        private long date;
+
+        Rows() {
+            for (int c = 0; c < ROW_SECTIONS.length; c++) {
+                cursors[c] = section(ROW_SECTIONS[c]);
+            }
+        }
+
+        // Read the next row, passing it to visitor unless that is null;
+        // returns the row's customer index
+        int next(OrderHistoryVisitor visitor) {
+            Cursor ids = cursors[0];
+            id = ids.nextId(id);
+            int customer = (int) cursors[1].varint();
+            date += unzigzag(cursors[2].varint());
+            int status = (int) cursors[3].varint();
+            int items = (int) cursors[4].varint();
+            String customerId = customers[customer];
+            boolean wanted = visitor != null
+                && visitor.order(new String(id, 0, ids.idLength, StandardCharsets.UTF_8),
+                                 customerId, date, statuses[status], items);
+            for (int j = 0; j < items; j++) {
+                int product = (int) cursors[5].varint();
+                int quantity = (int) cursors[6].varint();
+                long priceCents = unzigzag(cursors[7].varint());
+                if (wanted) {
+                    visitor.item(productIds[product], productNames[product], quantity, priceCents);
+                }
+            }
+            return customer;
+        }
+    }
+
+    /**
+     * Growable byte buffer for one column while encoding.
+     */
+    private static class Column {
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        void putVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(utf8.length);
+            put(utf8, 0, utf8.length);
+        }
+
+        void put(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Read position within one section.
+     */
+    private static class Cursor {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+        private int idLength; // length of the last ID read by nextId
+
+        Cursor(byte[] data, int start, int end) {
+            this.data = data;
+            this.pos = start;
+            this.end = end;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        // Next front-coded order ID: the previous ID's bytes in id are kept
+        // for the shared prefix and the rest is copied after them; returns
+        // the (possibly grown) buffer holding idLength bytes
+        byte[] nextId(byte[] id) {
+            int shared = (int) varint();
+            int rest = (int) varint();
+            if (shared > idLength || rest < 0 || rest > end - pos) {
+                throw new IllegalArgumentException("Corrupt order ID column");
+            }
+            if (shared + rest > id.length) {
+                id = Arrays.copyOf(id, Math.max(shared + rest, id.length * 2));
+            }
+            System.arraycopy(data, pos, id, shared, rest);
+            pos += rest;
+            idLength = shared + rest;
+            return id;
+        }
+
+        String string() {
+            long length = varint();
+            if (length > end - pos) {
+                throw new IllegalArgumentException("Bad string length");
+            }
+            String value = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+    }
+}
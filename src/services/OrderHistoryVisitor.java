@@ -0,0 +1,15 @@
+package services;
+
+/**
+ * OrderHistoryVisitor - callback for scanning archived orders
+ * Receives each archived order's fields directly, so reports can run over
+ * the whole history without building Order objects.
+ */
+public interface OrderHistoryVisitor {
+    // One archived order (orderDate as epoch seconds, read as UTC); return
+    // false to skip its items
+    boolean order(String orderId, String customerId, long orderDate, String status, int itemCount);
+
+    // One item of the order last passed to order(); price is in cents
+    void item(String productId, String productName, int quantity, long priceCents);
+}
@@ -1,64 +1,312 @@
 package services;
 
 import models.*;
+import utils.AppendLog;
+import utils.DataFormat;
 import utils.FileHandler;
+import utils.IdAllocator;
+import utils.RecordCodec;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * OrderService - handles order processing and management
+ * Open orders live in memory (snapshot in orders.txt plus the journal);
+ * closed orders can be moved into the columnar OrderHistory, which lookups
+ * fall back to and reports scan with scanHistory().
  */
 public class OrderService {
-    private List<Order> orders;
+    private Map<String, Order> orders;               // normalized orderId -> order, oldest first
+    private Map<String, List<Order>> ordersByCustomer; // customerId -> orders, oldest first
     private FileHandler fileHandler;
-    private static int orderCounter = 5000;
+    private AppendLog orderJournal; // order events since orders.txt was last written
+    private ExecutorService compactor;
+    private AtomicBoolean compacting;
+    private IdAllocator orderIds;
+    private OrderHistory history;
+
+    private static final String ORDERS_FILE = "data/orders.txt";
+    private static final String ORDERS_JOURNAL_FILE = "data/orders.log";
+    private static final String ORDER_IDS_FILE = "data/orders.seq";
+    private static final int SEGMENT_RECORDS = 1000; // roll and compact after this many events
+    private static final int ARCHIVE_AFTER_CLOSED = 1000; // archive at startup once this many are closed
+
+    // Journal event types
+    private static final String EVENT_CREATED = "CREATED";     // CREATED,<order record>
+    private static final String EVENT_STATUS = "STATUS";       // STATUS,<orderId>,<new status>
+    private static final String EVENT_CANCELLED = "CANCELLED"; // CANCELLED,<orderId>
+    private static final String EVENT_ABORTED = "ABORTED";     // ABORTED,<orderId> (creation failed)
 
     public OrderService() {
-        this.orders = new ArrayList<>();
+        DataFormat.upgrade();
+        this.orders = new LinkedHashMap<>();
+        this.ordersByCustomer = new HashMap<>();
         this.fileHandler = new FileHandler();
+        this.orderJournal = new AppendLog(ORDERS_JOURNAL_FILE);
+        this.orderIds = new IdAllocator(ORDER_IDS_FILE, 5000);
+        this.compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "order-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compacting = new AtomicBoolean(false);
+        this.history = new OrderHistory();
         loadOrders();
+        replayJournal();
+        dropArchivedOrders();
+        if (countClosedOrders() >= ARCHIVE_AFTER_CLOSED) {
+            archiveClosedOrders();
+        }
     }
 
-    // Load orders from file
+    // Load orders from file: the file is split into line-aligned chunks that
+    // are parsed in parallel on the fork-join pool, then merged in file order
     private void loadOrders() {
-        List<String> lines = fileHandler.readFile("data/orders.txt");
-        for (String line : lines) {
+        long startTime = System.nanoTime();
+        int chunkCount = Runtime.getRuntime().availableProcessors() * 4;
+        List<ByteBuffer> chunks = fileHandler.readChunks(ORDERS_FILE, chunkCount);
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        List<ForkJoinTask<List<Order>>> tasks = new ArrayList<>();
+        for (ByteBuffer chunk : chunks) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parseChunk(chunk)));
+        }
+        for (ForkJoinTask<List<Order>> task : tasks) {
+            for (Order order : task.join()) {
+                storeOrder(order);
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        if (!orders.isEmpty()) {
+            System.out.printf("Loaded %d orders in %.0f ms (%.0f orders/s)%n",
+                              orders.size(), seconds * 1000, orders.size() / Math.max(seconds, 1e-9));
+        }
+    }
+
+    // Apply the journal written since the last snapshot
+    private synchronized void replayJournal() {
+        for (String record : orderJournal.readAll()) {
             try {
-                String[] parts = line.split(",");
-                if (parts.length >= 8) {
-                    Order order = new Order(parts[0], parts[1]);
-                    order.setOrderDate(parts[2]);
-                    order.setStatus(parts[3]);
-                    
-                    // Parse items
-                    if (parts.length > 7 && !parts[7].isEmpty()) {
-                        String[] itemsStr = parts[7].split(";");
-                        for (String itemStr : itemsStr) {
-                            OrderItem item = OrderItem.fromString(itemStr);
-                            if (item != null) {
-                                order.addItem(item);
-                            }
-                        }
+                int typeEnd = record.indexOf(',');
+                String type = record.substring(0, typeEnd);
+                String data = record.substring(typeEnd + 1);
+
+                if (type.equals(EVENT_CREATED)) {
+                    Order order = parseOrder(data);
+                    if (order != null) {
+                        storeOrder(order);
+                    }
+                } else if (type.equals(EVENT_STATUS)) {
+                    RecordCodec.Reader fields = new RecordCodec.Reader(data, ',');
+                    Order order = getLiveOrder(fields.nextString());
+                    if (order != null) {
+                        order.setStatus(fields.nextString());
+                    }
+                } else if (type.equals(EVENT_CANCELLED)) {
+                    Order order = getLiveOrder(new RecordCodec.Reader(data, ',').nextString());
+                    if (order != null) {
+                        order.setStatus("CANCELLED");
+                    }
+                } else if (type.equals(EVENT_ABORTED)) {
+                    Order order = getLiveOrder(new RecordCodec.Reader(data, ',').nextString());
+                    if (order != null) {
+                        removeOrder(order);
                     }
-                    
-                    order.calculateTotal();
-                    orders.add(order);
+                }
+            } catch (Exception e) {
+                System.err.println("Error replaying order event: " + e.getMessage());
+            }
+        }
+
+        if (orderJournal.size() >= SEGMENT_RECORDS) {
+            startCompaction();
+        }
+    }
+
+    // Queue one order event; call while holding this service's lock so
+    // events reach the journal in the order they were applied
+    private long journal(String type, String data) {
+        return orderJournal.enqueue(Collections.singletonList(type + "," + data));
+    }
+
+    // Wait for a queued event to be written (sharing the write with any
+    // concurrent events) and compact once the active segment is full;
+    // returns false if the write failed (the event stays queued for retry)
+    private boolean commit(long ticket) {
+        boolean written = orderJournal.sync(ticket);
+        if (!written) {
+            System.err.println("Error writing order journal; will retry on next write");
+        }
+        if (orderJournal.size() >= SEGMENT_RECORDS) {
+            synchronized (this) {
+                startCompaction();
+            }
+        }
+        return written;
+    }
+
+    // Seal the journal's active segment and write a fresh snapshot on the
+    // compaction thread; sealed segments are deleted only once the snapshot
+    // is safely on disk. Call while holding this service's lock.
+    private void startCompaction() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        int sealedSegment = orderJournal.roll();
+        if (sealedSegment < 0) {
+            compacting.set(false);
+            return;
+        }
+
+        writeSnapshot(sealedSegment, () -> compacting.set(false));
+    }
+
+    // Write a copy of the current orders on the compaction thread, then
+    // delete journal segments up to sealedSegment (none if it is negative)
+    // and run whenDone. Snapshots are written in the order they are taken,
+    // so an older one never replaces a newer one. Call while holding this
+    // service's lock.
+    private void writeSnapshot(int sealedSegment, Runnable whenDone) {
+        // Every order the sealed segments mention is in this copy; events
+        // applied later land in the new segment and replay on top of it
+        List<Order> snapshot = new ArrayList<>(orders.values());
+        compactor.execute(() -> {
+            try {
+                if (saveOrders(snapshot) && sealedSegment >= 0) {
+                    orderJournal.deleteSegmentsUpTo(sealedSegment);
+                }
+            } finally {
+                whenDone.run();
+            }
+        });
+    }
+
+    // Move closed (delivered or cancelled) orders into the order history;
+    // returns how many were archived. The segment is written first and the
+    // orders then dropped from the snapshot, so a crash in between leaves
+    // them in both places and dropArchivedOrders() settles it on restart.
+    public synchronized int archiveClosedOrders() {
+        List<Order> closed = new ArrayList<>();
+        for (Order order : orders.values()) {
+            if (isClosed(order) && OrderHistorySegment.isArchivable(order)) {
+                closed.add(order);
+            }
+        }
+        if (closed.isEmpty()) {
+            return 0;
+        }
+        if (!history.append(closed)) {
+            System.err.println("Error writing order history; orders stay open");
+            return 0;
+        }
+
+        for (Order order : closed) {
+            removeOrder(order);
+        }
+        writeSnapshot(orderJournal.roll(), () -> { });
+        System.out.println("Archived " + closed.size() + " closed orders");
+        return closed.size();
+    }
+
+    // Drop loaded orders that are already in the history (left behind when
+    // archiving was interrupted)
+    private synchronized void dropArchivedOrders() {
+        if (orders.isEmpty() || history.getOrderCount() == 0) {
+            return;
+        }
+        List<Order> archived = new ArrayList<>();
+        for (Order order : orders.values()) {
+            if (history.contains(order.getOrderId())) {
+                archived.add(order);
+            }
+        }
+        if (archived.isEmpty()) {
+            return;
+        }
+        for (Order order : archived) {
+            removeOrder(order);
+        }
+        writeSnapshot(orderJournal.roll(), () -> { });
+    }
+
+    private static boolean isClosed(Order order) {
+        return "DELIVERED".equals(order.getStatus()) || "CANCELLED".equals(order.getStatus());
+    }
+
+    private synchronized int countClosedOrders() {
+        int closed = 0;
+        for (Order order : orders.values()) {
+            if (isClosed(order)) {
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    // Parse every order line of one chunk
+    private static List<Order> parseChunk(ByteBuffer chunk) {
+        List<Order> parsed = new ArrayList<>();
+        FileHandler.forEachLine(chunk, line -> {
+            try {
+                Order order = parseOrder(line);
+                if (order != null) {
+                    parsed.add(order);
                 }
             } catch (Exception e) {
                 System.err.println("Error loading order: " + e.getMessage());
             }
+        });
+        return parsed;
+    }
+
+    // Parse one line of orders.txt in place with a RecordCodec reader:
+    // orderId,customerId,date,status,subtotal,tax,total,item;item;...
+    // where each item is productId:productName:quantity:price
+    private static Order parseOrder(String line) {
+        RecordCodec.Reader fields = new RecordCodec.Reader(line, ',');
+        if (fields.countFields() < 8) {
+            return null;
+        }
+
+        Order order = new Order(fields.nextString(), fields.nextString(), fields.nextString());
+        order.setStatus(fields.nextString());
+
+        // Subtotal, tax and total are recomputed from the items below
+        fields.skip();
+        fields.skip();
+        fields.skip();
+        RecordCodec.Reader items = fields.nextRecord(';');
+        while (items.hasNext()) {
+            OrderItem item = OrderItem.fromRecord(items.nextRecord(':'));
+            if (item != null) {
+                order.addItem(item);
+            }
         }
+
+        order.calculateTotal();
+        return order;
     }
 
-    // Save orders to file
-    private void saveOrders() {
-        List<String> lines = new ArrayList<>();
-        for (Order order : orders) {
+    // Save orders to file (snapshot)
+    private boolean saveOrders(List<Order> snapshot) {
+        List<String> lines = new ArrayList<>(snapshot.size());
+        for (Order order : snapshot) {
             lines.add(order.toString());
         }
-        fileHandler.writeFile("data/orders.txt", lines);
+        return fileHandler.writeFile(ORDERS_FILE, lines);
     }
 
-    // Place order from cart
+    // Place order from cart. Checkout is all or nothing: every line is
+    // validated and its stock reserved before anything is written, and
+    // nothing is persisted (or left reserved) when a line fails.
     public Order placeOrder(String customerId, List<CartItem> cartItems, 
                            ProductService productService) {
         if (cartItems == null || cartItems.isEmpty()) {
@@ -66,69 +314,182 @@ public class OrderService {
             return null;
         }
 
-        // Create new order
-        String orderId = "ORD" + (++orderCounter);
-        Order order = new Order(orderId, customerId);
-
-        // Add items to order and update stock
+        // 1. Validate every line against the current catalog
+        List<OrderItem> orderItems = new ArrayList<>();
+        Map<String, Integer> quantities = new LinkedHashMap<>();
         for (CartItem cartItem : cartItems) {
-            Product product = cartItem.getProduct();
-            
+            Product product = productService.getProductById(cartItem.getProduct().getProductId());
+            if (product == null) {
+                System.out.println("Error: " + cartItem.getProduct().getName() + " is no longer available");
+                return null;
+            }
+
             // Check stock availability
-            if (product.getStock() < cartItem.getQuantity()) {
+            if (cartItem.getQuantity() <= 0 || product.getStock() < cartItem.getQuantity()) {
                 System.out.println("Error: Insufficient stock for " + product.getName());
                 return null;
             }
 
             // Create order item
-            OrderItem orderItem = new OrderItem(
+            orderItems.add(new OrderItem(
                 product.getProductId(),
                 product.getName(),
                 cartItem.getQuantity(),
                 product.getPrice()
-            );
-            order.addItem(orderItem);
+            ));
+            quantities.merge(product.getProductId(), cartItem.getQuantity(), Integer::sum);
+        }
 
-            // Update product stock
-            productService.updateStock(product.getProductId(), -cartItem.getQuantity());
+        // 2. Reserve stock for all lines at once (in memory only)
+        if (!productService.reserveStock(quantities)) {
+            System.out.println("Error: Stock changed during checkout. Please try again.");
+            return null;
         }
 
-        // Calculate totals
-        order.calculateTotal();
-        order.setStatus("CONFIRMED");
+        // 3. Create the order; give the reservation back if that fails
+        Order order;
+        long ticket;
+        try {
+            order = new Order("ORD" + orderIds.next(), customerId);
+            synchronized (this) {
+                for (OrderItem orderItem : orderItems) {
+                    order.addItem(orderItem);
+                }
+                order.calculateTotal();
+                order.setStatus("CONFIRMED");
+                storeOrder(order);
+                ticket = journal(EVENT_CREATED, order.toString());
+            }
+        } catch (RuntimeException e) {
+            productService.releaseStock(quantities);
+            throw e;
+        }
 
-        // Save order
-        orders.add(order);
-        saveOrders();
+        // 4. Make it durable: the order first, then the stock it consumed, so a
+        // crash in between can't leave stock taken for an order that doesn't exist
+        // (until committed, the persisted stock still includes the reservation).
+        // Both writes are group-committed with concurrent checkouts.
+        if (!commit(ticket)) {
+            abandonOrder(order);
+            productService.releaseStock(quantities);
+            System.out.println("Error: Could not save the order. Please try again.");
+            return null;
+        }
+        if (!productService.commitStock(quantities)) {
+            // The order is already durable, so it stands; only the stock
+            // bookkeeping is off
+            System.err.println("Error settling stock for order " + order.getOrderId());
+        }
 
         System.out.println("\n✓ Order placed successfully!");
-        System.out.println("Order ID: " + orderId);
+        System.out.println("Order ID: " + order.getOrderId());
         System.out.printf("Total Amount: $%.2f%n", order.getTotalAmount());
 
         return order;
     }
 
-    // Get order by ID
+    // Withdraw an order whose CREATED event could not be written. The event
+    // stays queued and may still reach the journal, so an ABORTED event is
+    // queued behind it and replay drops the order again.
+    private synchronized void abandonOrder(Order order) {
+        removeOrder(order);
+        journal(EVENT_ABORTED, RecordCodec.escape(order.getOrderId(), ","));
+    }
+
+    // Withdraw a status change whose event could not be written. The event
+    // stays queued for retry, so a STATUS event putting the previous status
+    // back is queued behind it. A change superseded meanwhile is left to the
+    // newer one. Returns false if the order was archived with the change in
+    // the meantime, which makes the change durable after all.
+    private synchronized boolean revertStatus(Order order, String failedStatus, String previousStatus) {
+        if (getLiveOrder(order.getOrderId()) != order) {
+            return false;
+        }
+        if (order.getStatus().equals(failedStatus)) {
+            order.setStatus(previousStatus);
+            journal(EVENT_STATUS,
+                    new RecordCodec.Writer(",").add(order.getOrderId()).add(previousStatus).toString());
+        }
+        return true;
+    }
+
+    // Add order to the store and the customer index (replaces an order with the same ID)
+    private void storeOrder(Order order) {
+        orderIds.observe(order.getOrderId());
+        Order previous = orders.put(normalizeId(order.getOrderId()), order);
+        if (previous != null) {
+            List<Order> previousOwnerOrders = ordersByCustomer.get(previous.getCustomerId());
+            if (previousOwnerOrders != null) {
+                previousOwnerOrders.remove(previous);
+            }
+        }
+        ordersByCustomer.computeIfAbsent(order.getCustomerId(), k -> new ArrayList<>()).add(order);
+    }
+
+    // Remove an order from the store and the customer index
+    private void removeOrder(Order order) {
+        orders.remove(normalizeId(order.getOrderId()));
+        List<Order> ownerOrders = ordersByCustomer.get(order.getCustomerId());
+        if (ownerOrders != null) {
+            ownerOrders.remove(order);
+            if (ownerOrders.isEmpty()) {
+                ordersByCustomer.remove(order.getCustomerId());
+            }
+        }
+    }
+
+    // Order IDs are matched case-insensitively
+    private static String normalizeId(String orderId) {
+        return orderId.toUpperCase();
+    }
+
+    // Get order by ID (open orders first, then the history). Archived
+    // orders are rebuilt on each call; changing them has no effect.
     public Order getOrderById(String orderId) {
-        for (Order order : orders) {
-            if (order.getOrderId().equalsIgnoreCase(orderId)) {
+        if (orderId == null) {
+            return null;
+        }
+        synchronized (this) {
+            Order order = getLiveOrder(orderId);
+            if (order != null) {
                 return order;
             }
         }
-        return null;
+        // Orders are written to the history before they leave the store
+        return history.find(orderId);
+    }
+
+    // Order in the store (not archived), or null; call while holding this
+    // service's lock
+    private Order getLiveOrder(String orderId) {
+        return orderId != null ? orders.get(normalizeId(orderId)) : null;
     }
 
-    // Get orders by customer
+    // Get orders by customer, newest first (archived orders after open ones)
     public List<Order> getOrdersByCustomer(String customerId) {
         List<Order> customerOrders = new ArrayList<>();
-        for (Order order : orders) {
-            if (order.getCustomerId().equals(customerId)) {
-                customerOrders.add(order);
+        synchronized (this) {
+            List<Order> placed = ordersByCustomer.get(customerId);
+            if (placed != null) {
+                for (int i = placed.size() - 1; i >= 0; i--) {
+                    customerOrders.add(placed.get(i));
+                }
             }
         }
+        customerOrders.addAll(history.findByCustomer(customerId));
         return customerOrders;
     }
 
+    // Visit every archived order, oldest first, without building Order objects
+    public void scanHistory(OrderHistoryVisitor visitor) {
+        history.scan(visitor);
+    }
+
+    // Number of archived orders
+    public int getArchivedOrderCount() {
+        return history.getOrderCount();
+    }
+
     // Display customer orders
     public void displayCustomerOrders(String customerId) {
         List<Order> customerOrders = getOrdersByCustomer(customerId);
@@ -163,26 +524,39 @@ public class OrderService {
 
     // Update order status (Admin only)
     public boolean updateOrderStatus(String orderId, String newStatus) {
-        Order order = getOrderById(orderId);
-        if (order == null) {
-            System.out.println("Order not found!");
+        Order order;
+        String previousStatus;
+        long ticket;
+        synchronized (this) {
+            order = getLiveOrder(orderId);
+            if (order == null) {
+                System.out.println(orderId != null && history.contains(orderId)
+                                   ? "Archived orders can no longer be changed!" : "Order not found!");
+                return false;
+            }
+            previousStatus = order.getStatus();
+            order.setStatus(newStatus);
+            ticket = journal(EVENT_STATUS,
+                             new RecordCodec.Writer(",").add(order.getOrderId()).add(newStatus).toString());
+        }
+        if (!commit(ticket) && revertStatus(order, newStatus, previousStatus)) {
+            System.out.println("Error: Could not save the order status. Please try again.");
             return false;
         }
-
-        order.setStatus(newStatus);
-        saveOrders();
         System.out.println("Order status updated to: " + newStatus);
         return true;
     }
 
-    // Get all orders (Admin)
-    public List<Order> getAllOrders() {
-        return new ArrayList<>(orders);
+    // Get all open (not archived) orders (Admin)
+    public synchronized List<Order> getAllOrders() {
+        return new ArrayList<>(orders.values());
     }
 
     // Display all orders (Admin)
     public void displayAllOrders() {
-        if (orders.isEmpty()) {
+        List<Order> allOrders = getAllOrders();
+        int archived = getArchivedOrderCount();
+        if (allOrders.isEmpty() && archived == 0) {
             System.out.println("\nNo orders found.");
             return;
         }
@@ -194,7 +568,7 @@ public class OrderService {
                          "Order ID", "Customer ID", "Date", "Total", "Status");
         System.out.println("----------------------------------------");
         
-        for (Order order : orders) {
+        for (Order order : allOrders) {
             System.out.printf("%-15s %-15s %-20s $%-11.2f %-10s%n",
                             order.getOrderId(), 
                             order.getCustomerId(),
@@ -202,6 +576,10 @@ public class OrderService {
                             order.getTotalAmount(),
                             order.getStatus());
         }
+        if (archived > 0) {
+            System.out.println("----------------------------------------");
+            System.out.println("Archived (closed) orders: " + archived);
+        }
         System.out.println("========================================\n");
     }
 
@@ -219,18 +597,34 @@ public class OrderService {
             return false;
         }
 
-        if (order.getStatus().equals("DELIVERED") || order.getStatus().equals("CANCELLED")) {
-            System.out.println("Cannot cancel this order!");
+        // Check and change the status together so concurrent cancels
+        // can't both restore the stock
+        String previousStatus;
+        long ticket;
+        synchronized (this) {
+            if (order.getStatus().equals("DELIVERED") || order.getStatus().equals("CANCELLED")) {
+                System.out.println("Cannot cancel this order!");
+                return false;
+            }
+            previousStatus = order.getStatus();
+            order.setStatus("CANCELLED");
+            ticket = journal(EVENT_CANCELLED, RecordCodec.escape(order.getOrderId(), ","));
+        }
+        // Stock only comes back once the cancellation is durable, so a crash
+        // can't restore the order along with its returned stock
+        if (!commit(ticket) && revertStatus(order, "CANCELLED", previousStatus)) {
+            System.out.println("Error: Could not cancel the order. Please try again.");
             return false;
         }
 
         // Restore stock
+        Map<String, Integer> stockChanges = new LinkedHashMap<>();
         for (OrderItem item : order.getItems()) {
-            productService.updateStock(item.getProductId(), item.getQuantity());
+            if (productService.getProductById(item.getProductId()) != null) {
+                stockChanges.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            }
         }
-
-        order.setStatus("CANCELLED");
-        saveOrders();
+        productService.adjustStock(stockChanges);
         System.out.println("Order cancelled successfully!");
         return true;
     }
@@ -0,0 +1,124 @@
+package services;
+
+import models.Product;
+import utils.FileHandler;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * ProductBinarySnapshot - compact binary encoding of the product catalog
+ * Layout (big-endian):
+ *   header:  magic "PRD1" (int), version (int), record count (int),
+ *            CRC32 of everything after the header (long)
+ *   record:  productId, name, description (strings), price (double),
+ *            stock (int), category (string)
+ *   string:  UTF-8 byte length (int) followed by the bytes
+ * The whole file is read with one bulk read and checked against the CRC
+ * before anything is decoded.
+ */
+public class ProductBinarySnapshot {
+    private static final int MAGIC = 0x50524431; // "PRD1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+
+    private ProductBinarySnapshot() {
+    }
+
+    // Encode products into snapshot bytes
+    public static byte[] encode(List<Product> products) {
+        List<byte[]> strings = new ArrayList<>(products.size() * 4);
+        int size = HEADER_BYTES;
+        for (Product product : products) {
+            size += addString(strings, product.getProductId())
+                  + addString(strings, product.getName())
+                  + addString(strings, product.getDescription())
+                  + addString(strings, product.getCategory())
+                  + 8 + 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.position(HEADER_BYTES);
+        int next = 0;
+        for (Product product : products) {
+            putString(buffer, strings.get(next++));
+            putString(buffer, strings.get(next++));
+            putString(buffer, strings.get(next++));
+            buffer.putDouble(product.getPrice());
+            buffer.putInt(product.getStock());
+            putString(buffer, strings.get(next++));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, size - HEADER_BYTES);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, products.size());
+        buffer.putLong(12, crc.getValue());
+        return buffer.array();
+    }
+
+    // Decode snapshot bytes; null if they are not a complete, valid snapshot
+    public static List<Product> decode(byte[] data) {
+        if (data == null || data.length < HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int count = buffer.getInt();
+        long checksum = buffer.getLong();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, HEADER_BYTES, data.length - HEADER_BYTES);
+        if (crc.getValue() != checksum || count < 0) {
+            return null;
+        }
+
+        try {
+            List<Product> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String productId = getString(buffer);
+                String name = getString(buffer);
+                String description = getString(buffer);
+                double price = buffer.getDouble();
+                int stock = buffer.getInt();
+                String category = getString(buffer);
+                products.add(new Product(productId, name, description, price, stock, category));
+            }
+            return buffer.hasRemaining() ? null : products;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Read and decode a snapshot file; null if it is missing or invalid
+    public static List<Product> read(FileHandler fileHandler, String filename) {
+        return decode(fileHandler.readBytes(filename));
+    }
+
+    private static int addString(List<byte[]> strings, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length");
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,91 @@
+package services;
+
+/**
+ * ProductQuery - combinable catalog filter passed to ProductService.query
+ * Every criterion is optional; unset criteria match all products.
+ */
+public class ProductQuery {
+    public enum SortOrder {
+        RELEVANCE,          // best keyword match first (index order without a keyword)
+        PRICE_LOW_TO_HIGH,
+        PRICE_HIGH_TO_LOW,
+        NAME
+    }
+
+    private String keyword;
+    private String category;
+    private double minPrice = Double.NEGATIVE_INFINITY;
+    private double maxPrice = Double.POSITIVE_INFINITY;
+    private boolean inStockOnly;
+    private SortOrder sortOrder = SortOrder.RELEVANCE;
+    private int limit = Integer.MAX_VALUE;
+
+    // Name must contain keyword (case-insensitive)
+    public ProductQuery keyword(String keyword) {
+        this.keyword = keyword;
+        return this;
+    }
+
+    // Category must match (case-insensitive)
+    public ProductQuery category(String category) {
+        this.category = category;
+        return this;
+    }
+
+    // Price must lie in [minPrice, maxPrice]
+    public ProductQuery priceBetween(double minPrice, double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    // Only products with stock left
+    public ProductQuery inStockOnly() {
+        this.inStockOnly = true;
+        return this;
+    }
+
+    public ProductQuery sortBy(SortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+        return this;
+    }
+
+    // Maximum number of results
+    public ProductQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    // Getters
+    public String getKeyword() {
+        return keyword;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public double getMinPrice() {
+        return minPrice;
+    }
+
+    public double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public boolean hasPriceRange() {
+        return minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isInStockOnly() {
+        return inStockOnly;
+    }
+
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
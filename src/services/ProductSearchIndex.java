@@ -0,0 +1,184 @@
+package services;
+
+import models.Product;
+import java.util.*;
+
+/**
+ * ProductSearchIndex - inverted n-gram index over product names
+ * Every 1, 2 and 3 character slice of a (lower-cased) name points at the
+ * products containing it, so a substring search only looks at the products
+ * sharing the query's rarest gram instead of the whole catalog.
+ */
+public class ProductSearchIndex {
+    private static final int MAX_GRAM_LENGTH = 3;
+
+    private Map<String, Set<Product>> grams;     // n-gram -> products whose name contains it
+    private Map<Product, String> indexedNames;   // product -> lower-cased name it is indexed under
+
+    public ProductSearchIndex() {
+        this.grams = new HashMap<>();
+        this.indexedNames = new LinkedHashMap<>();
+    }
+
+    // Index a product under its current name
+    public void add(Product product) {
+        remove(product);
+        String name = product.getName().toLowerCase();
+        indexedNames.put(product, name);
+        for (int start = 0; start < name.length(); start++) {
+            int maxEnd = Math.min(name.length(), start + MAX_GRAM_LENGTH);
+            for (int end = start + 1; end <= maxEnd; end++) {
+                grams.computeIfAbsent(name.substring(start, end), k -> new HashSet<>()).add(product);
+            }
+        }
+    }
+
+    // Drop a product from the index (uses the name it was indexed under)
+    public void remove(Product product) {
+        String name = indexedNames.remove(product);
+        if (name == null) {
+            return;
+        }
+        for (int start = 0; start < name.length(); start++) {
+            int maxEnd = Math.min(name.length(), start + MAX_GRAM_LENGTH);
+            for (int end = start + 1; end <= maxEnd; end++) {
+                String gram = name.substring(start, end);
+                Set<Product> posting = grams.get(gram);
+                if (posting != null) {
+                    posting.remove(product);
+                    if (posting.isEmpty()) {
+                        grams.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+
+    // Upper bound on the number of products matching keyword, without verifying them
+    public int estimateMatches(String keyword) {
+        Collection<Product> candidates = candidates(keyword.toLowerCase());
+        return candidates.size();
+    }
+
+    // All products whose name contains keyword (case-insensitive), unordered
+    public List<Product> matches(String keyword) {
+        String query = keyword.toLowerCase();
+        List<Product> results = new ArrayList<>();
+        for (Product product : candidates(query)) {
+            if (indexedNames.get(product).contains(query)) {
+                results.add(product);
+            }
+        }
+        return results;
+    }
+
+    // Matching products, best match first, at most limit results
+    public List<Product> search(String keyword, int limit) {
+        String query = keyword.toLowerCase();
+        List<Match> ranked = new ArrayList<>();
+        for (Product product : candidates(query)) {
+            String name = indexedNames.get(product);
+            int rank = rank(name, query);
+            if (rank >= 0) {
+                ranked.add(new Match(product, name, rank));
+            }
+        }
+        Collections.sort(ranked);
+
+        List<Product> results = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            results.add(ranked.get(i).product);
+        }
+        return results;
+    }
+
+    // Whether the product's name contains an already lower-cased query
+    public boolean nameContains(Product product, String lowerCaseQuery) {
+        return indexedName(product).contains(lowerCaseQuery);
+    }
+
+    // Orders products the same way search does for this keyword
+    public Comparator<Product> relevanceOrder(String keyword) {
+        String query = keyword.toLowerCase();
+        return (a, b) -> {
+            String nameA = indexedName(a);
+            String nameB = indexedName(b);
+            return compareMatches(nameA, rank(nameA, query), nameB, rank(nameB, query));
+        };
+    }
+
+    private String indexedName(Product product) {
+        String name = indexedNames.get(product);
+        return name != null ? name : product.getName().toLowerCase();
+    }
+
+    // Posting list of the query's rarest gram (a superset of the real matches)
+    private Collection<Product> candidates(String query) {
+        if (query.isEmpty()) {
+            return indexedNames.keySet();
+        }
+        if (query.length() <= MAX_GRAM_LENGTH) {
+            Set<Product> posting = grams.get(query);
+            return posting != null ? posting : Collections.<Product>emptySet();
+        }
+
+        Set<Product> smallest = null;
+        for (int start = 0; start + MAX_GRAM_LENGTH <= query.length(); start++) {
+            Set<Product> posting = grams.get(query.substring(start, start + MAX_GRAM_LENGTH));
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+        return smallest;
+    }
+
+    // 0 = exact name, 1 = name prefix, 2 = word prefix, 3 = inside a word, -1 = no match
+    private static int rank(String name, String query) {
+        int index = name.indexOf(query);
+        if (index < 0) {
+            return -1;
+        }
+        if (index == 0) {
+            return name.length() == query.length() ? 0 : 1;
+        }
+        while (index > 0) {
+            if (!Character.isLetterOrDigit(name.charAt(index - 1))) {
+                return 2;
+            }
+            index = name.indexOf(query, index + 1);
+        }
+        return 3;
+    }
+
+    // By rank, then shorter (closer) names, then alphabetically
+    private static int compareMatches(String nameA, int rankA, String nameB, int rankB) {
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        if (nameA.length() != nameB.length()) {
+            return Integer.compare(nameA.length(), nameB.length());
+        }
+        return nameA.compareTo(nameB);
+    }
+
+    // Search hit, ordered by compareMatches
+    private static class Match implements Comparable<Match> {
+        private final Product product;
+        private final String name;
+        private final int rank;
+
+        Match(Product product, String name, int rank) {
+            this.product = product;
+            this.name = name;
+            this.rank = rank;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            return compareMatches(name, rank, other.name, other.rank);
+        }
+    }
+}
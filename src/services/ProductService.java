@@ -1,69 +1,308 @@
 package services;
 
 import models.Product;
+import utils.AppendLog;
+import utils.DataFormat;
 import utils.FileHandler;
+import utils.IdAllocator;
+import utils.RecordCodec;
+import utils.StripedLocks;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * ProductService - handles all product-related operations
+ *
+ * Thread safety: catalog changes (add/update/delete, compaction) take the
+ * catalog write lock; lookups and stock changes take the read lock. Stock
+ * changes additionally lock the stripes of the products they touch, so
+ * checkouts on different products run in parallel.
+ *
+ * Stock reserved by a checkout is taken out of a product's stock at once
+ * but only leaves the persisted level once committed: the log and the
+ * snapshots always hold stock plus outstanding reservations, so a crash
+ * before a checkout commits never loses its stock.
+ *
+ * Storage: products.txt is the snapshot and products.log the changes made
+ * since. Once the log is full it is rolled and a copy of the catalog is
+ * written as the new snapshot on a background thread, so checkouts only
+ * wait for the copy; sealed log segments are deleted once the snapshot is
+ * on disk. Optionally the snapshot is also kept as products.bin (see
+ * ProductBinarySnapshot), which loads faster; it is written right after
+ * each CSV snapshot and preferred on startup while valid.
  */
 public class ProductService {
-    private List<Product> products;
+    private Map<String, Product> products; // normalized productId -> product, in insertion order
+    private ProductSearchIndex searchIndex;
+    private Map<String, Set<Product>> categoryIndex; // lower-cased category -> products, in insertion order
+    private Map<String, Integer> categoryCounts;     // category name -> number of products in it
+    private NavigableMap<Double, Set<Product>> priceIndex; // price -> products, ascending
     private FileHandler fileHandler;
-    private static int productCounter = 1000;
+    private AppendLog productLog; // changes made since products.txt was last written
+    private final ReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final StripedLocks stockLocks = new StripedLocks(64);
+    private final Map<String, Integer> reserved = new ConcurrentHashMap<>(); // normalized productId -> units reserved, not yet committed
+    private IdAllocator productIds;
+    private boolean binarySnapshot;   // also keep the snapshot as products.bin
+    private ExecutorService compactor; // writes snapshots one at a time, in the order taken
+    private AtomicBoolean compacting;
+
+    private static final String PRODUCTS_FILE = "data/products.txt";
+    private static final String PRODUCTS_LOG_FILE = "data/products.log";
+    private static final String PRODUCT_IDS_FILE = "data/products.seq";
+    private static final String PRODUCTS_BINARY_FILE = "data/products.bin";
+    private static final int COMPACT_AFTER_RECORDS = 1000;
+
+    // Change log record types
+    private static final String LOG_PUT = "PUT";     // PUT,<product record>
+    private static final String LOG_STOCK = "STOCK"; // STOCK,<productId>,<new stock>
+    private static final String LOG_DELETE = "DEL";  // DEL,<productId>
 
     public ProductService() {
-        this.products = new ArrayList<>();
+        this(false);
+    }
+
+    // binarySnapshot: also keep the snapshot as products.bin and load from it
+    public ProductService(boolean binarySnapshot) {
+        DataFormat.upgrade();
+        this.binarySnapshot = binarySnapshot;
+        this.compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "product-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compacting = new AtomicBoolean(false);
+        this.products = new LinkedHashMap<>();
+        this.searchIndex = new ProductSearchIndex();
+        this.categoryIndex = new HashMap<>();
+        this.categoryCounts = new LinkedHashMap<>();
+        this.priceIndex = new TreeMap<>();
         this.fileHandler = new FileHandler();
+        this.productLog = new AppendLog(PRODUCTS_LOG_FILE);
+        this.productIds = new IdAllocator(PRODUCT_IDS_FILE, 1000);
         loadProducts();
     }
 
-    // Load products from file
+    // Load products: the last snapshot, then every change logged after it
     private void loadProducts() {
-        List<String> lines = fileHandler.readFile("data/products.txt");
-        for (String line : lines) {
-            Product product = Product.fromString(line);
-            if (product != null) {
-                products.add(product);
+        List<Product> binary = binarySnapshot
+            ? ProductBinarySnapshot.read(fileHandler, PRODUCTS_BINARY_FILE) : null;
+        if (binary != null) {
+            for (Product product : binary) {
+                addToCatalog(product);
+            }
+        } else {
+            fileHandler.readLines(PRODUCTS_FILE, line -> {
+                try {
+                    Product product = Product.fromString(line);
+                    if (product != null) {
+                        addToCatalog(product);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error loading product: " + e.getMessage());
+                }
+            });
+        }
+
+        for (String record : productLog.readAll()) {
+            try {
+                replayChange(record);
+            } catch (Exception e) {
+                System.err.println("Error replaying product change: " + e.getMessage());
             }
         }
 
         // Add sample products if none exist
         if (products.isEmpty()) {
             addSampleProducts();
+        } else if (productLog.size() >= COMPACT_AFTER_RECORDS) {
+            compact();
+        } else if (binarySnapshot && binary == null) {
+            // First start with binary snapshots (or the old one was stale)
+            List<Product> copies = copyCatalog();
+            compactor.execute(() -> saveBinarySnapshot(copies));
+        }
+    }
+
+    // Apply one change log record to the in-memory catalog
+    private void replayChange(String record) {
+        RecordCodec.Reader fields = new RecordCodec.Reader(record, ',');
+        String type = fields.nextString();
+
+        if (type.equals(LOG_PUT)) {
+            Product product = Product.fromRecord(fields);
+            if (product != null) {
+                addToCatalog(product);
+            }
+        } else if (type.equals(LOG_STOCK)) {
+            Product product = getProductById(fields.nextString());
+            if (product != null) {
+                product.setStock(fields.nextInt());
+            }
+        } else if (type.equals(LOG_DELETE)) {
+            Product product = getProductById(fields.nextString());
+            if (product != null) {
+                removeFromCatalog(product);
+            }
+        }
+    }
+
+    // Persist one change; records hold absolute values so replaying
+    // a record that is already part of the snapshot is harmless
+    private void logChange(String type, String data) {
+        if (!productLog.append(type + "," + data)) {
+            // Fall back to a full snapshot so the change isn't lost
+            compact();
+            return;
+        }
+        if (productLog.size() >= COMPACT_AFTER_RECORDS) {
+            startCompaction();
         }
     }
 
-    // Save products to file
-    private void saveProducts() {
-        List<String> lines = new ArrayList<>();
-        for (Product product : products) {
+    // Seal the log's active segment and write a snapshot from a copy of the
+    // catalog on the compaction thread; sealed segments are deleted only
+    // once the snapshot is on disk. The write lock is held just for the
+    // roll and the copy: every applied change has queued its record by
+    // then, so the sealed segments hold exactly what the copy includes.
+    private void startCompaction() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        int sealedSegment;
+        List<Product> copies;
+        catalogLock.writeLock().lock();
+        try {
+            sealedSegment = productLog.roll();
+            copies = sealedSegment >= 0 ? copyCatalog() : null;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        if (copies == null) {
+            compacting.set(false);
+            return;
+        }
+
+        compactor.execute(() -> {
+            try {
+                if (saveProducts(copies)) {
+                    productLog.deleteSegmentsUpTo(sealedSegment);
+                }
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    // Write a snapshot now and drop the whole log (used when the log can't
+    // be written, and for the initial catalog). Holding the write lock keeps
+    // stock changes out until the log is cleared; the write itself goes
+    // through the compaction thread so an older background snapshot can't
+    // land after it.
+    private void compact() {
+        catalogLock.writeLock().lock();
+        try {
+            List<Product> copies = copyCatalog();
+            if (compactor.submit(() -> saveProducts(copies)).get()) {
+                productLog.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error saving products: " + e.getCause());
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    // Copy every product with its durable stock (caller holds the write lock)
+    private List<Product> copyCatalog() {
+        List<Product> copies = new ArrayList<>(products.size());
+        for (Product product : products.values()) {
+            copies.add(new Product(product.getProductId(), product.getName(), product.getDescription(),
+                                   product.getPrice(), durableStock(product), product.getCategory()));
+        }
+        return copies;
+    }
+
+    // Write copied products as the snapshot, then as products.bin when
+    // enabled (compaction thread only)
+    private boolean saveProducts(List<Product> copies) {
+        List<String> lines = new ArrayList<>(copies.size());
+        for (Product product : copies) {
             lines.add(product.toString());
         }
-        fileHandler.writeFile("data/products.txt", lines);
+        if (!fileHandler.writeFile(PRODUCTS_FILE, lines)) {
+            return false;
+        }
+        return saveBinarySnapshot(copies);
+    }
+
+    // Write copied products as products.bin (compaction thread only). Without
+    // binary snapshots, or if it can't be replaced, an existing one is
+    // deleted instead: the log segments it would need may be deleted next,
+    // and a later binary-mode run would prefer it over products.txt.
+    // Returns false if a stale products.bin is left behind.
+    private boolean saveBinarySnapshot(List<Product> copies) {
+        if (binarySnapshot
+                && fileHandler.writeBytes(PRODUCTS_BINARY_FILE, ProductBinarySnapshot.encode(copies))) {
+            return true;
+        }
+        fileHandler.deleteFile(PRODUCTS_BINARY_FILE);
+        return !fileHandler.fileExists(PRODUCTS_BINARY_FILE);
+    }
+
+    // Stock to persist for a product: what is left plus what checkouts
+    // have reserved but not committed (caller locks the product or catalog)
+    private int durableStock(Product product) {
+        return product.getStock() + reservedOf(product);
+    }
+
+    // Product record as persisted, with its durable stock
+    private String toDurableRecord(Product product) {
+        int stock = durableStock(product);
+        if (stock == product.getStock()) {
+            return product.toString();
+        }
+        return new Product(product.getProductId(), product.getName(), product.getDescription(),
+                           product.getPrice(), stock, product.getCategory()).toString();
     }
 
     // Add sample products
     private void addSampleProducts() {
-        products.add(new Product("P1001", "Laptop", "High-performance laptop", 899.99, 10, "Electronics"));
-        products.add(new Product("P1002", "Smartphone", "Latest model smartphone", 599.99, 25, "Electronics"));
-        products.add(new Product("P1003", "Headphones", "Wireless noise-canceling", 149.99, 50, "Electronics"));
-        products.add(new Product("P1004", "Book - Java Programming", "Complete Java guide", 39.99, 100, "Books"));
-        products.add(new Product("P1005", "Coffee Maker", "Automatic coffee machine", 79.99, 30, "Home"));
-        products.add(new Product("P1006", "Desk Chair", "Ergonomic office chair", 199.99, 15, "Furniture"));
-        products.add(new Product("P1007", "Water Bottle", "Stainless steel, 1L", 24.99, 200, "Sports"));
-        products.add(new Product("P1008", "Backpack", "Laptop backpack", 49.99, 40, "Accessories"));
-        productCounter = 1008;
-        saveProducts();
+        addToCatalog(new Product("P1001", "Laptop", "High-performance laptop", 899.99, 10, "Electronics"));
+        addToCatalog(new Product("P1002", "Smartphone", "Latest model smartphone", 599.99, 25, "Electronics"));
+        addToCatalog(new Product("P1003", "Headphones", "Wireless noise-canceling", 149.99, 50, "Electronics"));
+        addToCatalog(new Product("P1004", "Book - Java Programming", "Complete Java guide", 39.99, 100, "Books"));
+        addToCatalog(new Product("P1005", "Coffee Maker", "Automatic coffee machine", 79.99, 30, "Home"));
+        addToCatalog(new Product("P1006", "Desk Chair", "Ergonomic office chair", 199.99, 15, "Furniture"));
+        addToCatalog(new Product("P1007", "Water Bottle", "Stainless steel, 1L", 24.99, 200, "Sports"));
+        addToCatalog(new Product("P1008", "Backpack", "Laptop backpack", 49.99, 40, "Accessories"));
+        compact();
     }
 
     // Add new product (Admin only)
     public boolean addProduct(String name, String description, double price, 
                              int stock, String category) {
-        String productId = "P" + (++productCounter);
-        Product product = new Product(productId, name, description, price, stock, category);
-        products.add(product);
-        saveProducts();
+        catalogLock.writeLock().lock();
+        String productId;
+        try {
+            productId = "P" + productIds.next();
+            Product product = new Product(productId, name, description, price, stock, category);
+            addToCatalog(product);
+            logChange(LOG_PUT, product.toString());
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
         System.out.println("Product added successfully! Product ID: " + productId);
         return true;
     }
@@ -71,49 +310,116 @@ public class ProductService {
     // Update product (Admin only)
     public boolean updateProduct(String productId, String name, String description, 
                                 double price, int stock, String category) {
-        Product product = getProductById(productId);
-        if (product == null) {
-            System.out.println("Product not found!");
-            return false;
-        }
+        catalogLock.writeLock().lock();
+        try {
+            Product product = getProductById(productId);
+            if (product == null) {
+                System.out.println("Product not found!");
+                return false;
+            }
 
-        product.setName(name);
-        product.setDescription(description);
-        product.setPrice(price);
-        product.setStock(stock);
-        product.setCategory(category);
-        saveProducts();
+            unindexProduct(product);
+            product.setName(name);
+            product.setDescription(description);
+            product.setPrice(price);
+            product.setStock(stock);
+            product.setCategory(category);
+            indexProduct(product);
+            logChange(LOG_PUT, toDurableRecord(product));
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
         System.out.println("Product updated successfully!");
         return true;
     }
 
     // Delete product (Admin only)
     public boolean deleteProduct(String productId) {
-        Product product = getProductById(productId);
-        if (product == null) {
-            System.out.println("Product not found!");
-            return false;
-        }
+        catalogLock.writeLock().lock();
+        try {
+            Product product = getProductById(productId);
+            if (product == null) {
+                System.out.println("Product not found!");
+                return false;
+            }
 
-        products.remove(product);
-        saveProducts();
+            removeFromCatalog(product);
+            reserved.remove(normalizeId(product.getProductId()));
+            logChange(LOG_DELETE, RecordCodec.escape(product.getProductId(), ","));
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
         System.out.println("Product deleted successfully!");
         return true;
     }
 
     // Get product by ID
     public Product getProductById(String productId) {
-        for (Product product : products) {
-            if (product.getProductId().equalsIgnoreCase(productId)) {
-                return product;
+        if (productId == null) {
+            return null;
+        }
+        catalogLock.readLock().lock();
+        try {
+            return products.get(normalizeId(productId));
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Add product to the catalog (replaces any product with the same ID)
+    private void addToCatalog(Product product) {
+        productIds.observe(product.getProductId());
+        Product previous = products.put(normalizeId(product.getProductId()), product);
+        if (previous != null) {
+            unindexProduct(previous);
+        }
+        indexProduct(product);
+    }
+
+    // Remove product from the catalog
+    private void removeFromCatalog(Product product) {
+        products.remove(normalizeId(product.getProductId()));
+        unindexProduct(product);
+    }
+
+    // Add product to the secondary (search, category, price) indexes
+    private void indexProduct(Product product) {
+        searchIndex.add(product);
+        categoryIndex.computeIfAbsent(product.getCategory().toLowerCase(), k -> new LinkedHashSet<>())
+                     .add(product);
+        categoryCounts.merge(product.getCategory(), 1, Integer::sum);
+        priceIndex.computeIfAbsent(product.getPrice(), k -> new LinkedHashSet<>()).add(product);
+    }
+
+    // Remove product from the secondary indexes; call before changing indexed fields
+    private void unindexProduct(Product product) {
+        searchIndex.remove(product);
+
+        String categoryKey = product.getCategory().toLowerCase();
+        Set<Product> inCategory = categoryIndex.get(categoryKey);
+        if (inCategory != null && inCategory.remove(product)) {
+            if (inCategory.isEmpty()) {
+                categoryIndex.remove(categoryKey);
             }
+            categoryCounts.computeIfPresent(product.getCategory(), (k, count) -> count > 1 ? count - 1 : null);
         }
-        return null;
+
+        Set<Product> atPrice = priceIndex.get(product.getPrice());
+        if (atPrice != null && atPrice.remove(product) && atPrice.isEmpty()) {
+            priceIndex.remove(product.getPrice());
+        }
+    }
+
+    // Product IDs are matched case-insensitively; toUpperCase returns the
+    // same instance when the ID is already upper case, so lookups don't allocate
+    private static String normalizeId(String productId) {
+        return productId.toUpperCase();
     }
 
     // Display all products
     public void displayAllProducts() {
-        if (products.isEmpty()) {
+        List<Product> snapshot = getAllProducts();
+        if (snapshot.isEmpty()) {
             System.out.println("No products available.");
             return;
         }
@@ -125,54 +431,208 @@ public class ProductService {
                          "ID", "Name", "Price", "Category", "Stock");
         System.out.println("----------------------------------------");
         
-        for (Product product : products) {
+        for (Product product : snapshot) {
             product.displayShort();
         }
         System.out.println("========================================\n");
     }
 
-    // Search products by name
+    // Search products by name (best matches first)
     public List<Product> searchByName(String keyword) {
-        List<Product> results = new ArrayList<>();
-        for (Product product : products) {
-            if (product.getName().toLowerCase().contains(keyword.toLowerCase())) {
-                results.add(product);
-            }
+        return searchByName(keyword, Integer.MAX_VALUE);
+    }
+
+    // Search products by name, returning at most limit results
+    public List<Product> searchByName(String keyword, int limit) {
+        if (keyword == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        catalogLock.readLock().lock();
+        try {
+            return searchIndex.search(keyword, limit);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return results;
     }
 
-    // Filter by category
+    // Filter by category (case-insensitive)
     public List<Product> filterByCategory(String category) {
-        List<Product> results = new ArrayList<>();
-        for (Product product : products) {
-            if (product.getCategory().equalsIgnoreCase(category)) {
-                results.add(product);
-            }
+        if (category == null) {
+            return new ArrayList<>();
+        }
+        catalogLock.readLock().lock();
+        try {
+            Set<Product> inCategory = categoryIndex.get(category.toLowerCase());
+            return inCategory != null ? new ArrayList<>(inCategory) : new ArrayList<>();
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return results;
     }
 
-    // Filter by price range
+    // Filter by price range (inclusive), cheapest first
     public List<Product> filterByPriceRange(double minPrice, double maxPrice) {
-        List<Product> results = new ArrayList<>();
-        for (Product product : products) {
-            if (product.getPrice() >= minPrice && product.getPrice() <= maxPrice) {
-                results.add(product);
+        return filterByPriceRange(minPrice, maxPrice, 0, Integer.MAX_VALUE);
+    }
+
+    // One page of a price range (inclusive), cheapest first
+    public List<Product> filterByPriceRange(double minPrice, double maxPrice, int offset, int limit) {
+        if (minPrice > maxPrice) {
+            return new ArrayList<>();
+        }
+        catalogLock.readLock().lock();
+        try {
+            return pageOf(priceIndex.subMap(minPrice, true, maxPrice, true), offset, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // One page of the whole catalog sorted by price
+    public List<Product> getProductsSortedByPrice(boolean ascending, int offset, int limit) {
+        catalogLock.readLock().lock();
+        try {
+            return pageOf(ascending ? priceIndex : priceIndex.descendingMap(), offset, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Walk a slice of the price index, skipping offset products and keeping at most limit
+    private List<Product> pageOf(NavigableMap<Double, Set<Product>> range, int offset, int limit) {
+        List<Product> page = new ArrayList<>();
+        if (limit <= 0) {
+            return page;
+        }
+        int skipped = 0;
+        for (Set<Product> atPrice : range.values()) {
+            if (skipped + atPrice.size() <= offset) {
+                skipped += atPrice.size();
+                continue;
+            }
+            for (Product product : atPrice) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    page.add(product);
+                    if (page.size() == limit) {
+                        return page;
+                    }
+                }
+            }
+        }
+        return page;
+    }
+
+    // Run a combined catalog query (see ProductQuery)
+    public List<Product> query(ProductQuery query) {
+        catalogLock.readLock().lock();
+        try {
+            return stream(query).collect(Collectors.toList());
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Lazily evaluated query: candidates come from the most selective index and
+    // the remaining criteria are checked one product at a time, so a limited
+    // query stops as soon as enough matches are found (unless it must sort).
+    // The stream reads the live indexes; when the catalog may change
+    // concurrently use query(), which consumes it under the read lock.
+    public Stream<Product> stream(ProductQuery query) {
+        String keyword = query.getKeyword();
+        ProductQuery.SortOrder sortOrder = query.getSortOrder();
+        boolean priceOrder = sortOrder == ProductQuery.SortOrder.PRICE_LOW_TO_HIGH
+                          || sortOrder == ProductQuery.SortOrder.PRICE_HIGH_TO_LOW;
+
+        Set<Product> inCategory = null;
+        if (query.getCategory() != null) {
+            inCategory = categoryIndex.getOrDefault(query.getCategory().toLowerCase(), Collections.emptySet());
+        }
+        int keywordEstimate = keyword != null ? searchIndex.estimateMatches(keyword) : Integer.MAX_VALUE;
+        int categoryEstimate = inCategory != null ? inCategory.size() : Integer.MAX_VALUE;
+
+        // Plan: start from the smaller of the keyword and category candidate sets,
+        // else from the price index (which also gives price order for free)
+        Stream<Product> candidates;
+        boolean needsSort;
+        if (keyword != null && keywordEstimate <= categoryEstimate) {
+            if (sortOrder == ProductQuery.SortOrder.RELEVANCE) {
+                candidates = searchIndex.search(keyword, Integer.MAX_VALUE).stream();
+                needsSort = false;
+            } else {
+                candidates = searchIndex.matches(keyword).stream();
+                needsSort = true;
+            }
+        } else if (inCategory != null) {
+            candidates = inCategory.stream();
+            needsSort = keyword != null || sortOrder != ProductQuery.SortOrder.RELEVANCE;
+        } else if (query.hasPriceRange() || priceOrder) {
+            if (query.getMinPrice() > query.getMaxPrice()) {
+                return Stream.empty();
             }
+            NavigableMap<Double, Set<Product>> range =
+                    priceIndex.subMap(query.getMinPrice(), true, query.getMaxPrice(), true);
+            if (sortOrder == ProductQuery.SortOrder.PRICE_HIGH_TO_LOW) {
+                range = range.descendingMap();
+            }
+            candidates = range.values().stream().flatMap(Set::stream);
+            needsSort = sortOrder == ProductQuery.SortOrder.NAME;
+        } else {
+            candidates = products.values().stream();
+            needsSort = sortOrder != ProductQuery.SortOrder.RELEVANCE;
+        }
+
+        Stream<Product> results = candidates.filter(matcher(query));
+        if (needsSort) {
+            results = results.sorted(comparatorFor(query));
+        }
+        return results.limit(Math.max(0, query.getLimit()));
+    }
+
+    // Predicate checking every criterion of a query
+    private Predicate<Product> matcher(ProductQuery query) {
+        String lowerKeyword = query.getKeyword() != null ? query.getKeyword().toLowerCase() : null;
+        String category = query.getCategory();
+        double minPrice = query.getMinPrice();
+        double maxPrice = query.getMaxPrice();
+        boolean inStockOnly = query.isInStockOnly();
+        return product -> (lowerKeyword == null || searchIndex.nameContains(product, lowerKeyword))
+                       && (category == null || product.getCategory().equalsIgnoreCase(category))
+                       && product.getPrice() >= minPrice && product.getPrice() <= maxPrice
+                       && (!inStockOnly || product.isAvailable());
+    }
+
+    // Comparator implementing a query's sort order
+    private Comparator<Product> comparatorFor(ProductQuery query) {
+        switch (query.getSortOrder()) {
+            case PRICE_LOW_TO_HIGH:
+                return Comparator.comparingDouble(Product::getPrice);
+            case PRICE_HIGH_TO_LOW:
+                return Comparator.comparingDouble(Product::getPrice).reversed();
+            case NAME:
+                return Comparator.comparing(Product::getName, String.CASE_INSENSITIVE_ORDER);
+            default:
+                if (query.getKeyword() != null) {
+                    return searchIndex.relevanceOrder(query.getKeyword());
+                }
+                return (a, b) -> 0;
         }
-        return results;
     }
 
     // Get all products
     public List<Product> getAllProducts() {
-        return new ArrayList<>(products);
+        catalogLock.readLock().lock();
+        try {
+            return new ArrayList<>(products.values());
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
     // Get available products only
     public List<Product> getAvailableProducts() {
         List<Product> available = new ArrayList<>();
-        for (Product product : products) {
+        for (Product product : getAllProducts()) {
             if (product.isAvailable()) {
                 available.add(product);
             }
@@ -182,21 +642,155 @@ public class ProductService {
 
     // Update stock
     public boolean updateStock(String productId, int quantity) {
-        Product product = getProductById(productId);
-        if (product != null) {
-            product.updateStock(quantity);
-            saveProducts();
-            return true;
+        return adjustStock(Collections.singletonMap(productId, quantity));
+    }
+
+    // Apply the stock changes of a whole order (productId -> delta) at once.
+    // Either every change is applied or none is, and they are made durable
+    // with a single log write that concurrent callers share (group commit).
+    public boolean adjustStock(Map<String, Integer> deltas) {
+        long ticket = changeStock(deltas, Collections.<String, Integer>emptyMap(), true, false);
+        if (ticket < 0) {
+            return false;
         }
-        return false;
+        finishLogWrite(ticket);
+        return true;
     }
 
-    // Get all categories
+    // Take stock for several products (productId -> quantity), all or nothing.
+    // The stock can't be sold again, but stays in the persisted level until
+    // commitStock; releaseStock gives it back.
+    public boolean reserveStock(Map<String, Integer> quantities) {
+        return changeStock(negate(quantities), quantities, false, false) >= 0;
+    }
+
+    // Give back stock taken by reserveStock (rollback); nothing to persist,
+    // since the persisted level still includes it. Products deleted since
+    // are skipped.
+    public void releaseStock(Map<String, Integer> quantities) {
+        changeStock(quantities, negate(quantities), false, true);
+    }
+
+    // Make stock taken by reserveStock durably gone (once the order that
+    // took it is durable). Products deleted since are skipped, so the
+    // other products' reservations still get settled.
+    public boolean commitStock(Map<String, Integer> quantities) {
+        long ticket = changeStock(Collections.<String, Integer>emptyMap(), negate(quantities), true, true);
+        if (ticket < 0) {
+            return false;
+        }
+        finishLogWrite(ticket);
+        return true;
+    }
+
+    private static Map<String, Integer> negate(Map<String, Integer> quantities) {
+        Map<String, Integer> negated = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            negated.merge(entry.getKey(), -entry.getValue(), Integer::sum);
+        }
+        return negated;
+    }
+
+    // Lock the affected products and apply stock and reservation deltas, all
+    // or nothing. With log set, the new durable levels (stock plus
+    // reservations) are queued to the change log before the locks are
+    // released, so per product the log order matches the apply order.
+    // With skipMissing, products that no longer exist are left out instead
+    // of rejecting the change. Returns the log ticket (0 when not logging),
+    // or -1 if rejected.
+    private long changeStock(Map<String, Integer> stockDeltas, Map<String, Integer> reservedDeltas,
+                             boolean log, boolean skipMissing) {
+        catalogLock.readLock().lock();
+        try {
+            // Merge deltas per product first so validation sees the net change
+            Map<Product, int[]> changes = new LinkedHashMap<>(); // product -> {stock, reserved}
+            List<String> lockKeys = new ArrayList<>();
+            if (!collectChanges(stockDeltas, 0, skipMissing, changes, lockKeys)
+                    || !collectChanges(reservedDeltas, 1, skipMissing, changes, lockKeys)) {
+                return -1;
+            }
+
+            int[] held = stockLocks.lockAll(lockKeys);
+            try {
+                for (Map.Entry<Product, int[]> change : changes.entrySet()) {
+                    Product product = change.getKey();
+                    if (product.getStock() + change.getValue()[0] < 0
+                            || reservedOf(product) + change.getValue()[1] < 0) {
+                        return -1;
+                    }
+                }
+
+                List<String> records = new ArrayList<>();
+                for (Map.Entry<Product, int[]> change : changes.entrySet()) {
+                    Product product = change.getKey();
+                    product.updateStock(change.getValue()[0]);
+                    if (change.getValue()[1] != 0) {
+                        reserved.merge(normalizeId(product.getProductId()), change.getValue()[1],
+                                       (a, b) -> a + b != 0 ? a + b : null);
+                    }
+                    records.add(new RecordCodec.Writer(",")
+                        .add(LOG_STOCK).add(product.getProductId()).add(durableStock(product))
+                        .toString());
+                }
+                return log ? productLog.enqueue(records) : 0;
+            } finally {
+                stockLocks.unlockAll(held);
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Add one kind of delta (index 0 stock, 1 reserved) to changes; false
+    // if a product doesn't exist (unless missing products are skipped)
+    private boolean collectChanges(Map<String, Integer> deltas, int index, boolean skipMissing,
+                                   Map<Product, int[]> changes, List<String> lockKeys) {
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            Product product = getProductById(entry.getKey());
+            if (product == null) {
+                if (skipMissing) {
+                    continue;
+                }
+                return false;
+            }
+            changes.computeIfAbsent(product, k -> new int[2])[index] += entry.getValue();
+            lockKeys.add(normalizeId(product.getProductId()));
+        }
+        return true;
+    }
+
+    private int reservedOf(Product product) {
+        return reserved.getOrDefault(normalizeId(product.getProductId()), 0);
+    }
+
+    // Wait for queued stock records to be written: a failed write falls
+    // back to a snapshot right away, a full log is compacted in the
+    // background; must not hold the catalog lock
+    private void finishLogWrite(long ticket) {
+        if (!productLog.sync(ticket)) {
+            compact();
+        } else if (productLog.size() >= COMPACT_AFTER_RECORDS) {
+            startCompaction();
+        }
+    }
+
+    // Get all categories (copied from the maintained category counts)
     public Set<String> getAllCategories() {
-        Set<String> categories = new HashSet<>();
-        for (Product product : products) {
-            categories.add(product.getCategory());
+        catalogLock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(categoryCounts.keySet());
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Get number of products per category
+    public Map<String, Integer> getCategoryCounts() {
+        catalogLock.readLock().lock();
+        try {
+            return new LinkedHashMap<>(categoryCounts);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return categories;
     }
 }
\ No newline at end of file
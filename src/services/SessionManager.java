@@ -0,0 +1,105 @@
+package services;
+
+import models.User;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SessionManager - table of logged-in sessions
+ * Each login gets an opaque random token; callers pass the token back to
+ * act as that user. Sessions unused for longer than the idle timeout
+ * expire. Safe to use from many threads at once.
+ */
+public class SessionManager {
+    private static final int TOKEN_BYTES = 24;
+    private static final int PURGE_EVERY = 1024; // sessions created between sweeps
+
+    private Map<String, Session> sessions; // token -> session
+    private SecureRandom random;
+    private long idleTimeoutMillis;
+    private AtomicInteger createdSinceSweep;
+
+    // Constructor
+    public SessionManager(long idleTimeoutMillis) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.createdSinceSweep = new AtomicInteger();
+    }
+
+    // Start a session for user; returns its token
+    public String createSession(User user) {
+        if (createdSinceSweep.incrementAndGet() >= PURGE_EVERY) {
+            createdSinceSweep.set(0);
+            purgeExpired();
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        String token;
+        do {
+            random.nextBytes(bytes);
+            token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        } while (sessions.putIfAbsent(token, new Session(user)) != null);
+        return token;
+    }
+
+    // User of a live session (refreshing its idle timer), or null
+    public User getUser(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.lastAccessed > idleTimeoutMillis) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.lastAccessed = now;
+        return session.user;
+    }
+
+    // End a session; returns its user, or null if it was not live
+    public User endSession(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.remove(token);
+        return session != null ? session.user : null;
+    }
+
+    // Drop every expired session; returns how many were dropped
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastAccessed > idleTimeoutMillis) {
+                it.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    // Number of sessions held (including expired ones not yet purged)
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private static class Session {
+        private final User user;
+        private volatile long lastAccessed;
+
+        Session(User user) {
+            this.user = user;
+            this.lastAccessed = System.currentTimeMillis();
+        }
+    }
+}
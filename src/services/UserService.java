@@ -1,37 +1,78 @@
 package services;
 
 import models.*;
+import utils.AppendLog;
+import utils.DataFormat;
 import utils.FileHandler;
+import utils.IdAllocator;
+import utils.RecordCodec;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * UserService - handles all user-related operations
  * Demonstrates Service Layer pattern
+ *
+ * Any number of users can be logged in at once through sessions
+ * (startSession / getSessionUser / endSession); the ...ForSession methods
+ * act as the session's user. login/logout/getCurrentUser keep serving the single
+ * console user, and only they set User.isLoggedIn. Methods are synchronized, so the service can be shared
+ * between threads.
+ *
+ * Storage: registrations and profile changes are appended to users.log;
+ * users.txt is only rewritten when the log is compacted, which happens on
+ * a background thread so logins don't wait for it. Loading indexes
+ * each user's record by ID and email without parsing it - a user object is
+ * built the first time that user is looked up.
  */
 public class UserService {
-    private List<User> users;
+    private static final long SESSION_IDLE_TIMEOUT_MILLIS = 30L * 60 * 1000; // 30 minutes
+    private static final String USERS_FILE = "data/users.txt";
+    private static final String USERS_LOG_FILE = "data/users.log";
+    private static final String USER_IDS_FILE = "data/users.seq";
+    private static final int COMPACT_AFTER_RECORDS = 1000;
+
+    // Change log record types
+    private static final String LOG_PUT = "PUT"; // PUT,<user record>
+
+    private Map<String, UserRecord> users;        // normalized userId -> user, in registration order
+    private Map<String, UserRecord> usersByEmail; // normalized email -> user
     private User currentUser;
+    private SessionManager sessions;
     private FileHandler fileHandler;
-    private static int userCounter = 1000;
+    private AppendLog userLog; // changes made since users.txt was last written
+    private IdAllocator userIds; // shared by customers and admins
+    private ExecutorService compactor; // writes snapshots one at a time, in the order taken
+    private AtomicBoolean compacting;
 
     public UserService() {
-        this.users = new ArrayList<>();
+        DataFormat.upgrade();
+        this.users = new LinkedHashMap<>();
+        this.usersByEmail = new HashMap<>();
+        this.sessions = new SessionManager(SESSION_IDLE_TIMEOUT_MILLIS);
         this.fileHandler = new FileHandler();
+        this.userLog = new AppendLog(USERS_LOG_FILE);
+        this.userIds = new IdAllocator(USER_IDS_FILE, 1000);
+        this.compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "user-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compacting = new AtomicBoolean(false);
         loadUsers();
     }
 
-    // Load users from file
+    // Load users: the last snapshot, then every change logged after it.
+    // Records are only indexed here; parsing waits until a user is used.
     private void loadUsers() {
-        List<String> lines = fileHandler.readFile("data/users.txt");
-        for (String line : lines) {
-            String[] parts = line.split(",");
-            if (parts.length >= 7) {
-                String userType = parts[6];
-                if (userType.equals("CUSTOMER")) {
-                    users.add(Customer.fromString(line));
-                } else if (userType.equals("ADMIN")) {
-                    users.add(Admin.fromString(line));
-                }
+        fileHandler.readLines(USERS_FILE, this::indexRecord);
+
+        for (String record : userLog.readAll()) {
+            if (record.startsWith(LOG_PUT + ",")) {
+                indexRecord(record.substring(LOG_PUT.length() + 1));
             }
         }
         
@@ -39,22 +80,91 @@ public class UserService {
         if (users.isEmpty()) {
             Admin defaultAdmin = new Admin("A1000", "Admin", "admin@shop.com", 
                                           "admin123", "0000000000", "SUPER");
-            users.add(defaultAdmin);
-            saveUsers();
+            addUser(defaultAdmin);
+            compact();
+        } else if (userLog.size() >= COMPACT_AFTER_RECORDS) {
+            compact();
         }
     }
 
-    // Save users to file
-    private void saveUsers() {
-        List<String> lines = new ArrayList<>();
-        for (User user : users) {
-            lines.add(user.toString());
+    // Index a raw user record by its ID and email fields; records without
+    // all seven fields are skipped, as before
+    private void indexRecord(String line) {
+        RecordCodec.Reader fields = new RecordCodec.Reader(line, ',');
+        if (fields.countFields() < 7) {
+            return;
         }
-        fileHandler.writeFile("data/users.txt", lines);
+        String userId = fields.nextString();
+        fields.skip();
+        putRecord(new UserRecord(userId, fields.nextString(), line));
+    }
+
+    // Persist one change; PUT records hold the whole user, so replaying
+    // one that is already part of the snapshot is harmless
+    private void logChange(User user) {
+        if (!userLog.append(LOG_PUT + "," + user.toString())) {
+            // Fall back to a full snapshot so the change isn't lost
+            compact();
+            return;
+        }
+        if (userLog.size() >= COMPACT_AFTER_RECORDS) {
+            startCompaction();
+        }
+    }
+
+    // Seal the log's active segment and write a snapshot from a copy of the
+    // records on the compaction thread; sealed segments are deleted only
+    // once the snapshot is on disk. Called with the monitor held, so every
+    // change is either in the copy and the sealed segments or in neither.
+    private void startCompaction() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        int sealedSegment = userLog.roll();
+        if (sealedSegment < 0) {
+            compacting.set(false);
+            return;
+        }
+        List<String> lines = copyRecords();
+        compactor.execute(() -> {
+            try {
+                if (fileHandler.writeFile(USERS_FILE, lines)) {
+                    userLog.deleteSegmentsUpTo(sealedSegment);
+                }
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    // Write a snapshot now and drop the whole log (used when the log can't
+    // be written, and at startup). The write goes through the compaction
+    // thread so an older background snapshot can't land after it.
+    private void compact() {
+        List<String> lines = copyRecords();
+        try {
+            if (compactor.submit(() -> fileHandler.writeFile(USERS_FILE, lines)).get()) {
+                userLog.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error saving users: " + e.getCause());
+        }
+    }
+
+    // Every user as a file line (records never looked up are written back
+    // as read); caller holds the monitor
+    private List<String> copyRecords() {
+        List<String> lines = new ArrayList<>(users.size());
+        for (UserRecord record : users.values()) {
+            lines.add(record.user != null ? record.user.toString() : record.line);
+        }
+        return lines;
     }
 
     // Register new customer
-    public boolean registerCustomer(String name, String email, String password, 
+    public synchronized boolean registerCustomer(String name, String email, String password, 
                                     String phone, String address) {
         // Check if email already exists
         if (getUserByEmail(email) != null) {
@@ -62,18 +172,29 @@ public class UserService {
             return false;
         }
 
-        String userId = "C" + (++userCounter);
+        String userId = "C" + userIds.next();
         Customer customer = new Customer(userId, name, email, password, phone, address);
-        users.add(customer);
-        saveUsers();
+        addUser(customer);
+        logChange(customer);
         System.out.println("Registration successful! Your Customer ID: " + userId);
         return true;
     }
 
     // Register new admin (only by existing admin)
-    public boolean registerAdmin(String name, String email, String password, 
+    public synchronized boolean registerAdmin(String name, String email, String password, 
                                 String phone, String adminLevel) {
-        if (currentUser == null || !currentUser.getUserType().equals("ADMIN")) {
+        return registerAdmin(currentUser, name, email, password, phone, adminLevel);
+    }
+
+    // Register new admin as the admin logged in with sessionToken
+    public boolean registerAdminForSession(String sessionToken, String name, String email, String password,
+                                           String phone, String adminLevel) {
+        return registerAdmin(sessions.getUser(sessionToken), name, email, password, phone, adminLevel);
+    }
+
+    private synchronized boolean registerAdmin(User actingUser, String name, String email, String password,
+                                               String phone, String adminLevel) {
+        if (actingUser == null || !actingUser.getUserType().equals("ADMIN")) {
             System.out.println("Error: Only admins can register new admins!");
             return false;
         }
@@ -83,19 +204,31 @@ public class UserService {
             return false;
         }
 
-        String userId = "A" + (++userCounter);
+        String userId = "A" + userIds.next();
         Admin admin = new Admin(userId, name, email, password, phone, adminLevel);
-        users.add(admin);
-        saveUsers();
+        addUser(admin);
+        logChange(admin);
         System.out.println("Admin registration successful! Admin ID: " + userId);
         return true;
     }
 
-    // Login
-    public User login(String email, String password) {
-        User user = getUserByEmail(email);
-        if (user != null && user.login(email, password)) {
+    // Login (console user)
+    public synchronized User login(String email, String password) {
+        User user = authenticate(email, password);
+        if (user != null) {
+            user.setLoggedIn(true);
             currentUser = user;
+        }
+        return user;
+    }
+
+    // Check credentials for both console logins and sessions: the user is
+    // found by email (case-insensitively) and User.checkCredentials decides.
+    // The user's logged-in flag is left alone; it belongs to the console
+    // login, while sessions live in the session table.
+    private synchronized User authenticate(String email, String password) {
+        User user = getUserByEmail(email);
+        if (user != null && user.checkCredentials(email, password)) {
             System.out.println("\n✓ Login successful! Welcome, " + user.getName());
             return user;
         }
@@ -103,8 +236,8 @@ public class UserService {
         return null;
     }
 
-    // Logout
-    public void logout() {
+    // Logout (console user)
+    public synchronized void logout() {
         if (currentUser != null) {
             currentUser.logout();
             System.out.println("Logged out successfully!");
@@ -112,23 +245,100 @@ public class UserService {
         }
     }
 
-    // Get user by email
+    // Start a session; returns its token, or null if the credentials are wrong
+    public String startSession(String email, String password) {
+        User user = authenticate(email, password);
+        return user != null ? sessions.createSession(user) : null;
+    }
+
+    // User logged in with sessionToken, or null if the session is unknown or expired
+    public User getSessionUser(String sessionToken) {
+        return sessions.getUser(sessionToken);
+    }
+
+    // End a session
+    public void endSession(String sessionToken) {
+        if (sessions.endSession(sessionToken) != null) {
+            System.out.println("Logged out successfully!");
+        }
+    }
+
+    // Get user by email (case-insensitive)
     private User getUserByEmail(String email) {
-        for (User user : users) {
-            if (user.getEmail().equalsIgnoreCase(email)) {
-                return user;
+        return email == null ? null : resolve(usersByEmail.get(normalizeEmail(email)));
+    }
+
+    // Get user by ID
+    public synchronized User getUserById(String userId) {
+        return userId == null ? null : resolve(users.get(normalizeId(userId)));
+    }
+
+    // Add a user to both indexes
+    private void addUser(User user) {
+        UserRecord record = new UserRecord(user.getUserId(), user.getEmail(), null);
+        record.user = user;
+        putRecord(record);
+    }
+
+    // Index a record, replacing any earlier record for the same user
+    private void putRecord(UserRecord record) {
+        userIds.observe(record.userId);
+        UserRecord previous = users.put(normalizeId(record.userId), record);
+        if (previous != null) {
+            usersByEmail.remove(normalizeEmail(previous.email), previous);
+        }
+        usersByEmail.put(normalizeEmail(record.email), record);
+    }
+
+    // The record's user, parsed on first use; null for a missing or bad record
+    private User resolve(UserRecord record) {
+        if (record == null) {
+            return null;
+        }
+        if (record.user == null && record.line != null) {
+            try {
+                record.user = parseUser(record.line);
+            } catch (Exception e) {
+                System.err.println("Error loading user: " + e.getMessage());
+            }
+            if (record.user != null) {
+                record.line = null;
+            }
+        }
+        return record.user;
+    }
+
+    private static User parseUser(String line) {
+        RecordCodec.Reader typeField = new RecordCodec.Reader(line, ',');
+        if (typeField.countFields() >= 7) {
+            for (int i = 0; i < 6; i++) {
+                typeField.skip();
+            }
+            String userType = typeField.nextString();
+            if (userType.equals("CUSTOMER")) {
+                return Customer.fromString(line);
+            } else if (userType.equals("ADMIN")) {
+                return Admin.fromString(line);
             }
         }
         return null;
     }
 
-    // Get current user
-    public User getCurrentUser() {
+    private static String normalizeId(String userId) {
+        return userId.toUpperCase();
+    }
+
+    private static String normalizeEmail(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    // Get current user (console user)
+    public synchronized User getCurrentUser() {
         return currentUser;
     }
 
     // Display current user info
-    public void displayCurrentUserInfo() {
+    public synchronized void displayCurrentUserInfo() {
         if (currentUser != null) {
             currentUser.displayInfo();
         } else {
@@ -137,32 +347,56 @@ public class UserService {
     }
 
     // Update profile
-    public boolean updateProfile(String name, String phone, String address) {
-        if (currentUser == null) {
+    public synchronized boolean updateProfile(String name, String phone, String address) {
+        return updateProfile(currentUser, name, phone, address);
+    }
+
+    // Update the profile of the user logged in with sessionToken
+    public boolean updateProfileForSession(String sessionToken, String name, String phone, String address) {
+        return updateProfile(sessions.getUser(sessionToken), name, phone, address);
+    }
+
+    private synchronized boolean updateProfile(User user, String name, String phone, String address) {
+        if (user == null) {
             System.out.println("Please login first!");
             return false;
         }
 
-        currentUser.setName(name);
-        currentUser.setPhone(phone);
+        user.setName(name);
+        user.setPhone(phone);
         
-        if (currentUser instanceof Customer) {
-            ((Customer) currentUser).setAddress(address);
+        if (user instanceof Customer) {
+            ((Customer) user).setAddress(address);
         }
 
-        saveUsers();
+        logChange(user);
         System.out.println("Profile updated successfully!");
         return true;
     }
 
     // Get all customers (for admin)
-    public List<Customer> getAllCustomers() {
+    public synchronized List<Customer> getAllCustomers() {
         List<Customer> customers = new ArrayList<>();
-        for (User user : users) {
+        for (UserRecord record : users.values()) {
+            User user = resolve(record);
             if (user instanceof Customer) {
                 customers.add((Customer) user);
             }
         }
         return customers;
     }
-}
\ No newline at end of file
+
+    // A user's stored record; line is kept until the user is first parsed
+    private static class UserRecord {
+        private final String userId;
+        private final String email;
+        private String line;
+        private User user;
+
+        UserRecord(String userId, String email, String line) {
+            this.userId = userId;
+            this.email = email;
+            this.line = line;
+        }
+    }
+}
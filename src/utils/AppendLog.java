@@ -0,0 +1,175 @@
+package utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * AppendLog - append-only log of text records
+ * Lets a service persist one small change at a time instead of rewriting
+ * its whole data file. The owner replays the records on startup and clears
+ * the log once their effect has been written to a snapshot (compaction).
+ *
+ * Writes are group-committed: callers enqueue records (cheap, in memory)
+ * and then sync. The first caller to sync writes every queued record in one
+ * append, and callers whose records went out with it return immediately.
+ *
+ * The log can also be rolled: the current file is sealed as a numbered
+ * segment (filename.1, filename.2, ...) and new records go to a fresh file.
+ * That lets the owner snapshot in the background and then delete only the
+ * segments the snapshot covers.
+ */
+public class AppendLog {
+    private String filename;
+    private FileHandler fileHandler;
+    private volatile int recordCount;
+
+    private final Object queueLock = new Object(); // guards pending and lastQueued
+    private final Object writeLock = new Object(); // serializes writes, guards lastWritten
+    private List<String> pending = new ArrayList<>();
+    private long lastQueued;   // ticket of the newest queued batch
+    private long lastWritten;  // every ticket up to this one is on disk (or compacted away)
+    private int nextSegment;   // number the next sealed segment will get
+
+    // Constructor
+    public AppendLog(String filename) {
+        this.filename = filename;
+        this.fileHandler = new FileHandler();
+        TreeMap<Integer, File> segments = sealedSegments();
+        this.nextSegment = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    }
+
+    // Read every record in the order it was appended (sealed segments first)
+    public List<String> readAll() {
+        List<String> records = new ArrayList<>();
+        for (File segment : sealedSegments().values()) {
+            records.addAll(fileHandler.readFile(segment.getPath()));
+        }
+        records.addAll(fileHandler.readFile(filename));
+        recordCount = records.size();
+        return records;
+    }
+
+    // Append one record and wait until it is written
+    public boolean append(String record) {
+        return sync(enqueue(Collections.singletonList(record)));
+    }
+
+    // Queue records behind everything queued so far; returns the ticket to sync on
+    public long enqueue(List<String> records) {
+        synchronized (queueLock) {
+            pending.addAll(records);
+            return ++lastQueued;
+        }
+    }
+
+    // Wait until the batch with this ticket is written, writing it (and any
+    // batches queued alongside it) if no other caller has done so yet
+    public boolean sync(long ticket) {
+        synchronized (writeLock) {
+            if (lastWritten >= ticket) {
+                return true;
+            }
+            return writePending();
+        }
+    }
+
+    // Write everything queued so far; caller must hold writeLock
+    private boolean writePending() {
+        List<String> batch;
+        long upTo;
+        synchronized (queueLock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            upTo = lastQueued;
+        }
+
+        if (!batch.isEmpty() && !fileHandler.appendLines(filename, batch)) {
+            // Put the batch back so the next sync retries it in order
+            synchronized (queueLock) {
+                batch.addAll(pending);
+                pending = batch;
+            }
+            return false;
+        }
+        recordCount += batch.size();
+        lastWritten = upTo;
+        return true;
+    }
+
+    // Seal the current file as the next numbered segment and continue in a
+    // new file. Queued records are written first so they land in the sealed
+    // segment. Returns the sealed segment number, or -1 if nothing was sealed.
+    public int roll() {
+        synchronized (writeLock) {
+            if (!writePending()) {
+                return -1;
+            }
+            File active = new File(filename);
+            if (!active.exists()) {
+                return -1;
+            }
+            int segment = nextSegment;
+            if (!active.renameTo(new File(filename + "." + segment))) {
+                System.err.println("Error rolling log: " + filename);
+                return -1;
+            }
+            nextSegment++;
+            recordCount = 0;
+            return segment;
+        }
+    }
+
+    // Delete sealed segments numbered up to and including lastSegment
+    // (call only after a snapshot covering them is on disk)
+    public void deleteSegmentsUpTo(int lastSegment) {
+        for (File segment : sealedSegments().headMap(lastSegment, true).values()) {
+            fileHandler.deleteFile(segment.getPath());
+        }
+    }
+
+    // Sealed segment files by number
+    private TreeMap<Integer, File> sealedSegments() {
+        TreeMap<Integer, File> segments = new TreeMap<>();
+        File active = new File(filename).getAbsoluteFile();
+        String prefix = active.getName() + ".";
+        File[] files = active.getParentFile().listFiles();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix)) {
+                try {
+                    segments.put(Integer.parseInt(name.substring(prefix.length())), file);
+                } catch (NumberFormatException e) {
+                    // Not a segment (e.g. a temporary file)
+                }
+            }
+        }
+        return segments;
+    }
+
+    // Number of records currently in the log
+    public int size() {
+        return recordCount;
+    }
+
+    // Drop all records, including queued ones and sealed segments (call only
+    // after their effect is captured in a snapshot)
+    public boolean clear() {
+        synchronized (writeLock) {
+            synchronized (queueLock) {
+                pending = new ArrayList<>();
+                lastWritten = lastQueued;
+            }
+            recordCount = 0;
+            for (File segment : sealedSegments().values()) {
+                fileHandler.deleteFile(segment.getPath());
+            }
+            return !fileHandler.fileExists(filename) || fileHandler.deleteFile(filename);
+        }
+    }
+}
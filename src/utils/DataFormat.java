@@ -0,0 +1,115 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DataFormat - version of the text data files, and the upgrade to it
+ * data/format.txt holds the version the files are written in. Version 2
+ * escapes fields with RecordCodec; files from before that (no format.txt)
+ * hold every backslash literally, so they are migrated once by doubling
+ * each backslash, which reads back exactly as the old code read the line.
+ *
+ * The upgrade is safe to interrupt: converted copies are written next to
+ * the originals, the new version is recorded, and only then are the copies
+ * moved into place (finished on the next start if it stops midway).
+ */
+public final class DataFormat {
+    private static final String DATA_DIR = "data";
+    private static final String[] TEXT_DIRS = {DATA_DIR, DATA_DIR + "/carts"};
+    private static final String FORMAT_FILE = DATA_DIR + "/format.txt";
+    private static final String UPGRADED_SUFFIX = ".escaped";
+    private static final int VERSION = 2;
+
+    private static boolean checked;
+
+    private DataFormat() {
+    }
+
+    // Bring the data files to the current version; call before reading any
+    // of them (only the first call does any work)
+    public static synchronized void upgrade() {
+        if (checked) {
+            return;
+        }
+        checked = true;
+        FileHandler fileHandler = new FileHandler();
+
+        if (readVersion(fileHandler) < VERSION) {
+            for (File file : listFiles(UPGRADED_SUFFIX)) {
+                file.delete(); // left by an upgrade that stopped before recording the version
+            }
+            for (File file : listFiles(null)) {
+                List<String> lines = new ArrayList<>();
+                if (!fileHandler.readLines(file.getPath(), line -> lines.add(line.replace("\\", "\\\\")))
+                        || !fileHandler.writeFile(file.getPath() + UPGRADED_SUFFIX, lines)) {
+                    System.err.println("Error upgrading data file: " + file.getPath());
+                    return;
+                }
+            }
+            if (!fileHandler.writeFile(FORMAT_FILE, Collections.singletonList(String.valueOf(VERSION)))) {
+                return;
+            }
+        }
+
+        for (File upgraded : listFiles(UPGRADED_SUFFIX)) {
+            String path = upgraded.getPath();
+            File target = new File(path.substring(0, path.length() - UPGRADED_SUFFIX.length()));
+            try {
+                try {
+                    Files.move(upgraded.toPath(), target.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(upgraded.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                System.err.println("Error upgrading data file: " + target.getPath());
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    // Version recorded in format.txt; 1 if there is none
+    private static int readVersion(FileHandler fileHandler) {
+        if (!fileHandler.fileExists(FORMAT_FILE)) {
+            return 1;
+        }
+        List<String> lines = fileHandler.readFile(FORMAT_FILE);
+        try {
+            return lines.isEmpty() ? 1 : Integer.parseInt(lines.get(0));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    // Files ending in suffix, or (suffix null) the record files: snapshots
+    // (.txt) and change logs (.log and its sealed .log.N segments)
+    private static List<File> listFiles(String suffix) {
+        List<File> matches = new ArrayList<>();
+        for (String dir : TEXT_DIRS) {
+            File[] files = new File(dir).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || file.getPath().equals(new File(FORMAT_FILE).getPath())) {
+                    continue;
+                }
+                boolean match = suffix != null
+                    ? name.endsWith(suffix)
+                    : name.endsWith(".txt") || name.endsWith(".log") || name.matches(".*\\.log\\.\\d+");
+                if (match) {
+                    matches.add(file);
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -1,7 +1,15 @@
 package utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * FileHandler - utility class for file operations
@@ -9,10 +17,49 @@ import java.util.*;
  */
 public class FileHandler {
 
+    // Whether writes are forced to disk (FileChannel.force) before they are
+    // reported successful. Turning this off trades durability for speed.
+    private static volatile boolean forceWrites = true;
+
+    // Files at least this large are memory-mapped; smaller ones are read into the heap
+    private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+    // Largest region handed out as one buffer
+    private static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+
+    public static boolean isForceWrites() {
+        return forceWrites;
+    }
+
+    public static void setForceWrites(boolean force) {
+        forceWrites = force;
+    }
+
     // Read file and return list of lines
     public List<String> readFile(String filename) {
         List<String> lines = new ArrayList<>();
-        
+        readLines(filename, lines::add);
+        return lines;
+    }
+
+    // Stream the trimmed, non-blank lines of a UTF-8 file to consumer,
+    // without collecting them first
+    public boolean readLines(String filename, Consumer<String> consumer) {
+        List<ByteBuffer> chunks = readChunks(filename, 1);
+        if (chunks == null) {
+            return false;
+        }
+        for (ByteBuffer chunk : chunks) {
+            forEachLine(chunk, consumer);
+        }
+        return true;
+    }
+
+    // Split a file into (up to) chunkCount buffers that each end on a line
+    // boundary, so the chunks can be parsed in parallel with forEachLine.
+    // Returns an empty list if the file doesn't exist and null on error.
+    public List<ByteBuffer> readChunks(String filename, int chunkCount) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+
         // Create data directory if it doesn't exist
         File dir = new File("data");
         if (!dir.exists()) {
@@ -20,51 +67,200 @@ public class FileHandler {
         }
 
         File file = new File(filename);
-        
-        // Return empty list if file doesn't exist
+
+        // Return no chunks if file doesn't exist
         if (!file.exists()) {
-            return lines;
+            return chunks;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    lines.add(line.trim());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.min(MAX_CHUNK_BYTES, Math.max(1, (size + chunkCount - 1) / Math.max(1, chunkCount)));
+            long start = 0;
+            while (start < size) {
+                long end = Math.min(size, start + chunkSize);
+                if (end < size) {
+                    end = nextLineStart(channel, end, size);
                 }
+                chunks.add(readRegion(channel, start, end - start, size >= MAP_THRESHOLD));
+                start = end;
             }
         } catch (IOException e) {
             System.err.println("Error reading file: " + filename);
             System.err.println(e.getMessage());
+            return null;
         }
+        return chunks;
+    }
 
-        return lines;
+    // Feed every trimmed, non-blank line between the buffer's position and
+    // limit to consumer. Lines are split on raw '\n' bytes (which never occur
+    // inside a multi-byte UTF-8 character) and each line is decoded once.
+    public static void forEachLine(ByteBuffer buffer, Consumer<String> consumer) {
+        ByteBuffer view = buffer.duplicate();
+        byte[] scratch = new byte[256];
+        int limit = buffer.limit();
+        int lineStart = buffer.position();
+
+        for (int i = lineStart; i <= limit; i++) {
+            if (i < limit && buffer.get(i) != '\n') {
+                continue;
+            }
+
+            // Trim whitespace/control bytes at both ends, as String.trim() would
+            int from = lineStart;
+            int to = i;
+            while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+            lineStart = i + 1;
+            if (from == to) {
+                continue;
+            }
+
+            int length = to - from;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            view.limit(to).position(from);
+            view.get(scratch, 0, length);
+            consumer.accept(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Position just after the next '\n' at or after from (or end of file)
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
     }
 
-    // Write list of lines to file
+    // Map a region of the file, or copy it into the heap for small files
+    // (mapping costs more than it saves for those)
+    private static ByteBuffer readRegion(FileChannel channel, long start, long length, boolean map)
+            throws IOException {
+        if (map) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Write list of lines to file atomically: the lines go to a temporary
+    // file that is flushed to disk and then renamed over the target, so a
+    // crash leaves either the old or the new contents, never a mix
     public boolean writeFile(String filename, List<String> lines) {
+        File target = new File(filename);
+
         // Create data directory if it doesn't exist
-        File dir = new File("data");
+        File dir = target.getAbsoluteFile().getParentFile();
         if (!dir.exists()) {
             dir.mkdirs();
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+        File temp = new File(filename + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(temp);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
             for (String line : lines) {
                 writer.write(line);
                 writer.newLine();
             }
-            return true;
+            writer.flush();
+            if (forceWrites) {
+                out.getChannel().force(true);
+            }
         } catch (IOException e) {
             System.err.println("Error writing file: " + filename);
             System.err.println(e.getMessage());
+            temp.delete();
+            return false;
+        }
+        return replace(temp, target);
+    }
+
+    // Write raw bytes to file atomically (same temporary-file-and-rename as writeFile)
+    public boolean writeBytes(String filename, byte[] data) {
+        File target = new File(filename);
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        File temp = new File(filename + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            if (forceWrites) {
+                out.getChannel().force(true);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing file: " + filename);
+            System.err.println(e.getMessage());
+            temp.delete();
+            return false;
+        }
+        return replace(temp, target);
+    }
+
+    // Read a whole file in one go; null if it doesn't exist or can't be read
+    public byte[] readBytes(String filename) {
+        File file = new File(filename);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + filename);
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    // Rename a fully written temporary file over its target
+    private boolean replace(File temp, File target) {
+        try {
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error replacing file: " + target.getPath());
+            System.err.println(e.getMessage());
+            temp.delete();
             return false;
         }
     }
 
     // Append line to file
     public boolean appendToFile(String filename, String line) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename, true))) {
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(filename, true), StandardCharsets.UTF_8))) {
             writer.write(line);
             writer.newLine();
             return true;
@@ -75,6 +271,26 @@ public class FileHandler {
         }
     }
 
+    // Append several lines to file with a single open/write/flush
+    public boolean appendLines(String filename, List<String> lines) {
+        try (FileOutputStream out = new FileOutputStream(filename, true);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.flush();
+            if (forceWrites) {
+                out.getChannel().force(false);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error appending to file: " + filename);
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
     // Check if file exists
     public boolean fileExists(String filename) {
         File file = new File(filename);
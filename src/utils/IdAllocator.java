@@ -0,0 +1,91 @@
+package utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdAllocator - hands out increasing numeric IDs that survive restarts
+ * IDs come from a block reserved ahead of time: the end of the block is
+ * written to a sequence file before any ID in it is used, so after a
+ * restart allocation resumes past everything that may have been handed out
+ * (skipping the unused rest of the block). Within a block, next() is a
+ * single atomic increment.
+ *
+ * Owners also call observe() with the IDs they load, so allocation stays
+ * ahead of existing data even if the sequence file is missing.
+ */
+public class IdAllocator {
+    private static final int DEFAULT_BLOCK_SIZE = 100;
+
+    private String sequenceFile;
+    private FileHandler fileHandler;
+    private int blockSize;
+    private final AtomicLong last;        // last ID handed out (or observed)
+    private volatile long reservedUpTo;   // IDs up to this one are covered by the sequence file
+
+    // Constructor; initialValue is the "last used" ID when nothing is stored
+    public IdAllocator(String sequenceFile, long initialValue) {
+        this(sequenceFile, initialValue, DEFAULT_BLOCK_SIZE);
+    }
+
+    public IdAllocator(String sequenceFile, long initialValue, int blockSize) {
+        this.sequenceFile = sequenceFile;
+        this.fileHandler = new FileHandler();
+        this.blockSize = Math.max(1, blockSize);
+        long start = Math.max(initialValue, readReserved());
+        this.last = new AtomicLong(start);
+        this.reservedUpTo = start;
+    }
+
+    // Next ID
+    public long next() {
+        long id = last.incrementAndGet();
+        if (id > reservedUpTo) {
+            reserve(id);
+        }
+        return id;
+    }
+
+    // Make sure IDs up to id are never handed out
+    public void observe(long id) {
+        last.accumulateAndGet(id, Math::max);
+    }
+
+    // observe() for an ID like "ORD5001": its trailing digits, if any
+    public void observe(String id) {
+        int start = id.length();
+        while (start > 0 && Character.isDigit(id.charAt(start - 1))) {
+            start--;
+        }
+        if (start < id.length() && id.length() - start < 19) {
+            observe(Long.parseLong(id.substring(start)));
+        }
+    }
+
+    // Extend the reservation to cover id (callers beyond the current block
+    // wait here until the new block is on disk)
+    private synchronized void reserve(long id) {
+        if (id <= reservedUpTo) {
+            return;
+        }
+        long upTo = Math.max(reservedUpTo, last.get()) + blockSize;
+        if (!fileHandler.writeFile(sequenceFile, Collections.singletonList(Long.toString(upTo)))) {
+            System.err.println("Error reserving IDs in " + sequenceFile);
+        }
+        reservedUpTo = upTo;
+    }
+
+    private long readReserved() {
+        List<String> lines = fileHandler.readFile(sequenceFile);
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(lines.get(0).trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Error reading " + sequenceFile + ": " + e.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package utils;
+
+/**
+ * RecordCodec - reads and writes the delimited records used in data files
+ * Fields are separated by a single character (',' for whole records, ';'
+ * and ':' for records nested inside a field, like an order's items). A
+ * field containing a separator, a backslash or a line break has it escaped
+ * with a backslash, so names and addresses may hold any text.
+ *
+ * Reader walks a record in place: fields are located by scanning, strings
+ * are only copied when returned, and numbers are parsed straight from the
+ * characters. Files written before escaping existed hold backslashes
+ * literally; DataFormat upgrades them before they are read.
+ */
+public final class RecordCodec {
+    // Exact powers of ten for the fast decimal path
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+    private static final int MAX_FAST_DIGITS = 15; // any 15-digit integer is exact in a double
+
+    private RecordCodec() {
+    }
+
+    // Escape a field; separators lists the characters that must not appear
+    // bare (the field separator and those of every enclosing record)
+    public static String escape(String value, String separators) {
+        if (value == null) {
+            return "null";
+        }
+        int i = 0;
+        while (i < value.length() && !needsEscape(value.charAt(i), separators)) {
+            i++;
+        }
+        if (i == value.length()) {
+            return value;
+        }
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        escaped.append(value, 0, i);
+        appendEscaped(escaped, value, i, separators);
+        return escaped.toString();
+    }
+
+    private static void appendEscaped(StringBuilder out, String value, int from, String separators) {
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else {
+                if (needsEscape(c, separators)) {
+                    out.append('\\');
+                }
+                out.append(c);
+            }
+        }
+    }
+
+    private static boolean needsEscape(char c, String separators) {
+        return c == '\\' || c == '\n' || c == '\r' || separators.indexOf(c) >= 0;
+    }
+
+    /**
+     * Builds one record, escaping each field as it is added.
+     */
+    public static class Writer {
+        private final StringBuilder record = new StringBuilder(64);
+        private final char separator;
+        private final String separators;
+        private boolean first = true;
+
+        // separators: the field separator first, then those of enclosing records
+        public Writer(String separators) {
+            this.separator = separators.charAt(0);
+            this.separators = separators;
+        }
+
+        public Writer add(String value) {
+            startField();
+            if (value == null) {
+                record.append("null");
+            } else {
+                appendEscaped(record, value, 0, separators);
+            }
+            return this;
+        }
+
+        public Writer add(int value) {
+            startField();
+            record.append(value);
+            return this;
+        }
+
+        public Writer add(double value) {
+            startField();
+            record.append(value);
+            return this;
+        }
+
+        // Add an already encoded nested record as one field
+        public Writer addRaw(String encoded) {
+            startField();
+            record.append(encoded);
+            return this;
+        }
+
+        private void startField() {
+            if (!first) {
+                record.append(separator);
+            }
+            first = false;
+        }
+
+        @Override
+        public String toString() {
+            return record.toString();
+        }
+    }
+
+    /**
+     * Cursor over the fields of one record (or a window of a larger text).
+     */
+    public static class Reader {
+        private final CharSequence text;
+        private final int end;
+        private final char separator;
+        private int pos;
+        private boolean exhausted;
+
+        // Bounds of the field found last by findField
+        private int fieldStart;
+        private int fieldEnd;
+        private boolean fieldEscaped;
+
+        public Reader(CharSequence text, char separator) {
+            this(text, 0, text.length(), separator);
+        }
+
+        // Fields of text[start, end); an empty window has no fields
+        public Reader(CharSequence text, int start, int end, char separator) {
+            this.text = text;
+            this.end = end;
+            this.separator = separator;
+            this.pos = start;
+            this.exhausted = start >= end;
+        }
+
+        public boolean hasNext() {
+            return !exhausted;
+        }
+
+        // Number of fields not read yet
+        public int countFields() {
+            if (exhausted) {
+                return 0;
+            }
+            int count = 1;
+            for (int i = pos; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == separator) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public void skip() {
+            findField();
+        }
+
+        public String nextString() {
+            findField();
+            if (!fieldEscaped) {
+                return text.subSequence(fieldStart, fieldEnd).toString();
+            }
+            return unescape(fieldStart, fieldEnd);
+        }
+
+        public int nextInt() {
+            findField();
+            long value = parseLong(MAX_FAST_DIGITS);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Value out of range: " + rawField());
+            }
+            return (int) value;
+        }
+
+        public double nextDouble() {
+            findField();
+            if (fieldEscaped) {
+                return Double.parseDouble(rawField());
+            }
+            int i = fieldStart;
+            boolean negative = i < fieldEnd && text.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = -1; // -1 until the decimal point is seen
+            for (; i < fieldEnd; i++) {
+                char c = text.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i < fieldEnd || digits == 0 || digits > MAX_FAST_DIGITS) {
+                // Exponents, NaN/Infinity, long or malformed input
+                return Double.parseDouble(rawField());
+            }
+            // Both operands are exact, so the division is correctly rounded
+            // and matches Double.parseDouble
+            double value = fractionDigits > 0 ? mantissa / POW10[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+
+        // The next field as a reader over its own (nested) fields
+        public Reader nextRecord(char nestedSeparator) {
+            findField();
+            return new Reader(text, fieldStart, fieldEnd, nestedSeparator);
+        }
+
+        // Locate the next field and move past it
+        private void findField() {
+            if (exhausted) {
+                throw new IllegalArgumentException("Missing field");
+            }
+            fieldStart = pos;
+            fieldEscaped = false;
+            int i = pos;
+            while (i < end) {
+                char c = text.charAt(i);
+                if (c == '\\') {
+                    fieldEscaped = true;
+                    i += 2;
+                } else if (c == separator) {
+                    break;
+                } else {
+                    i++;
+                }
+            }
+            fieldEnd = Math.min(i, end);
+            if (i >= end) {
+                exhausted = true;
+            } else {
+                pos = i + 1;
+            }
+        }
+
+        // Decimal integer from the current field, without a substring for
+        // plain digits; anything else goes through Long.parseLong
+        private long parseLong(int maxDigits) {
+            int i = fieldStart;
+            boolean negative = i < fieldEnd && text.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            if (fieldEscaped || i == fieldEnd || fieldEnd - i > maxDigits) {
+                return Long.parseLong(rawField());
+            }
+            long value = 0;
+            for (; i < fieldEnd; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.parseLong(rawField()); // "+5" parses, junk throws
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private String rawField() {
+            return fieldEscaped ? unescape(fieldStart, fieldEnd) : text.subSequence(fieldStart, fieldEnd).toString();
+        }
+
+        private String unescape(int from, int to) {
+            StringBuilder value = new StringBuilder(to - from);
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                if (c == '\\' && i + 1 < to) {
+                    char escaped = text.charAt(++i);
+                    value.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+                } else {
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StripedLocks - fixed pool of locks shared out by key hash
+ * Gives per-key locking without one lock object per key. Several keys are
+ * always locked in ascending stripe order, so two callers locking
+ * overlapping key sets can never deadlock.
+ */
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+
+    // Constructor (stripeCount is rounded up to a power of two)
+    public StripedLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    // Lock the stripes of all keys; pass the result to unlockAll
+    public int[] lockAll(Collection<String> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            indexes[count++] = stripeOf(key);
+        }
+        Arrays.sort(indexes);
+
+        // Drop duplicates so a stripe is locked once
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        int[] held = Arrays.copyOf(indexes, distinct);
+        for (int index : held) {
+            stripes[index].lock();
+        }
+        return held;
+    }
+
+    // Release stripes taken by lockAll
+    public void unlockAll(int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            stripes[held[i]].unlock();
+        }
+    }
+
+    private int stripeOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+}